@@ -0,0 +1,49 @@
+package by.spalex.bmp.bench;
+
+import by.spalex.bmp.bitmap.Bitmap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures parsing of bitmap headers and computing of encode capacity
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BitmapBenchmark {
+
+    @Param
+    public Carrier carrier;
+
+    @Param({"65536", "4194304"})
+    public int pixels;
+
+    private byte[] file;
+    private Bitmap bitmap;
+
+    @Setup
+    public void setUp() {
+        file = carrier.create(pixels, 1);
+        bitmap = new Bitmap(file);
+    }
+
+    @Benchmark
+    public Bitmap construct() {
+        return new Bitmap(file);
+    }
+
+    @Benchmark
+    public long encodeCapacity() {
+        return bitmap.getEncodeCapacity();
+    }
+}
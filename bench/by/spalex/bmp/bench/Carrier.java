@@ -0,0 +1,63 @@
+package by.spalex.bmp.bench;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ * Carrier bitmap formats, one per branch of encoding: palette, HIGH COLOR with BI_RGB or BI_BITFIELDS,
+ * TRUE COLOR and DEEP COLOR
+ */
+public enum Carrier {
+    MONOCHROME(1, 0),
+    EGA(4, 0),
+    VGA(8, 0),
+    HIGH_COLOR_RGB(16, 0),
+    HIGH_COLOR_BITFIELDS(16, 3),
+    TRUE_COLOR(24, 0),
+    DEEP_COLOR(32, 0);
+
+    private static final int FILE_HEADER_SIZE = 14;
+    private static final int INFO_HEADER_SIZE = 40;
+
+    private final int bitsPerPixel;
+    private final int compression;
+
+    Carrier(int bitsPerPixel, int compression) {
+        this.bitsPerPixel = bitsPerPixel;
+        this.compression = compression;
+    }
+
+    /**
+     * Creates square bitmap file with BITMAPINFOHEADER filled by random pixels
+     * @param pixels approximate count of pixels
+     * @param seed   seed of random pixels and palette
+     * @return bitmap file
+     */
+    public byte[] create(int pixels, long seed) {
+        int width = (int) Math.sqrt(pixels);
+        int height = Math.max(1, pixels / width);
+        int masks = compression == 3 ? 12 : 0;
+        int paletteSize = bitsPerPixel <= 8 ? 1 << bitsPerPixel : 0;
+        int rowSize = (bitsPerPixel * width + 31) / 32 * 4;
+        int offset = FILE_HEADER_SIZE + INFO_HEADER_SIZE + masks + paletteSize * 4;
+        int size = offset + rowSize * height;
+        Random random = new Random(seed);
+
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put((byte) 'B').put((byte) 'M').putInt(size).putInt(0).putInt(offset);
+        buffer.putInt(INFO_HEADER_SIZE).putInt(width).putInt(height).putShort((short) 1)
+                .putShort((short) bitsPerPixel).putInt(compression).putInt(rowSize * height)
+                .putInt(2835).putInt(2835).putInt(0).putInt(0);
+        if (masks > 0) {
+            buffer.putInt(0xf00).putInt(0xf0).putInt(0xf);
+        }
+        for (int i = 0; i < paletteSize; i++) {
+            buffer.put((byte) random.nextInt()).put((byte) random.nextInt()).put((byte) random.nextInt()).put((byte) 0);
+        }
+        byte[] image = new byte[rowSize * height];
+        random.nextBytes(image);
+        buffer.put(image);
+        return buffer.array();
+    }
+}
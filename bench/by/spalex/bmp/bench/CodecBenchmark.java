@@ -0,0 +1,82 @@
+package by.spalex.bmp.bench;
+
+import by.spalex.bmp.bitmap.Bitmap;
+import by.spalex.bmp.coder.Decoder;
+import by.spalex.bmp.coder.EncodedBitmap;
+import by.spalex.bmp.coder.Encoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Measures encoding and decoding of text for every carrier format. Payload is cut by encode capacity of carrier,
+ * so palette carriers always hold at most 255 bytes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    @Param
+    public Carrier carrier;
+
+    @Param({"65536", "4194304"})
+    public int pixels;
+
+    @Param({"64", "65536", "1048576"})
+    public int payload;
+
+    private Bitmap bitmap;
+    private Bitmap encoded;
+    private byte[] text;
+
+    @Setup
+    public void setUp() {
+        bitmap = new Bitmap(carrier.create(pixels, 1));
+        text = new byte[(int) Math.min(payload, bitmap.getEncodeCapacity())];
+        new Random(2).nextBytes(text);
+        encoded = new Bitmap(new Encoder(bitmap).encode(text));
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return new Encoder(bitmap).encode(text);
+    }
+
+    @Benchmark
+    public EncodedBitmap encodeRegion() {
+        return new Encoder(bitmap).encodeRegion(text);
+    }
+
+    @Benchmark
+    public EncodedBitmap encodeParallel() {
+        return new Encoder(bitmap).encodeParallel(text);
+    }
+
+    @Benchmark
+    public String decode() {
+        return new Decoder(encoded).decode(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] decodeBytes() {
+        return new Decoder(encoded).decodeBytes();
+    }
+
+    @Benchmark
+    public byte[] decodeBytesParallel() {
+        return new Decoder(encoded).decodeBytesParallel();
+    }
+}
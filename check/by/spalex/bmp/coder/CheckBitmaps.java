@@ -0,0 +1,131 @@
+package by.spalex.bmp.coder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.util.Random;
+
+/**
+ * Bitmaps with random pixels and helpers shared by checks of encoding
+ */
+final class CheckBitmaps {
+
+    private static final int FILE_HEADER_SIZE = 14;
+    private static final int INFO_HEADER_SIZE = 40;
+    private static final int CORE_HEADER_SIZE = 12;
+    private static final int BI_RGB = 0;
+    private static final int BI_BITFIELDS = 3;
+
+    private CheckBitmaps() {
+    }
+
+    /**
+     * Creates bitmap with BITMAPINFOHEADER. Bitmaps of 8 and less bits have full palette,
+     * HIGH COLOR bitmap with bitfields has 5-6-5 masks
+     * @param width     width in pixels
+     * @param height    height in pixels, negative for top-down bitmap
+     * @param bpp       bits per pixel
+     * @param bitfields true for BI_BITFIELDS compression
+     * @param random    source of pixels and palette
+     * @return bitmap file
+     */
+    static byte[] info(int width, int height, int bpp, boolean bitfields, Random random) {
+        int masks = bitfields ? 12 : 0;
+        int palette = bpp <= 8 ? 4 << bpp : 0;
+        int offset = FILE_HEADER_SIZE + INFO_HEADER_SIZE + masks + palette;
+        int imageSize = rowSize(width, bpp) * Math.abs(height);
+        ByteBuffer buffer = fileHeader(offset, imageSize);
+        buffer.putInt(INFO_HEADER_SIZE).putInt(width).putInt(height).putShort((short) 1).putShort((short) bpp)
+                .putInt(bitfields ? BI_BITFIELDS : BI_RGB).putInt(imageSize).putInt(2835).putInt(2835)
+                .putInt(0).putInt(0);
+        if (bitfields) {
+            buffer.putInt(0xf800).putInt(0x07e0).putInt(0x001f);
+        }
+        return fill(buffer, random);
+    }
+
+    /**
+     * Creates bitmap with BITMAPCOREHEADER and palette of 3-byte entries
+     * @param width  width in pixels
+     * @param height height in pixels
+     * @param bpp    bits per pixel, 1, 4 or 8
+     * @param random source of pixels and palette
+     * @return bitmap file
+     */
+    static byte[] core(int width, int height, int bpp, Random random) {
+        int offset = FILE_HEADER_SIZE + CORE_HEADER_SIZE + (3 << bpp);
+        int imageSize = rowSize(width, bpp) * height;
+        ByteBuffer buffer = fileHeader(offset, imageSize);
+        buffer.putInt(CORE_HEADER_SIZE).putShort((short) width).putShort((short) height).putShort((short) 1)
+                .putShort((short) bpp);
+        return fill(buffer, random);
+    }
+
+    private static int rowSize(int width, int bpp) {
+        return (width * bpp + 31) / 32 * 4;
+    }
+
+    private static ByteBuffer fileHeader(int offset, int imageSize) {
+        ByteBuffer buffer = ByteBuffer.allocate(offset + imageSize).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put((byte) 'B').put((byte) 'M').putInt(buffer.capacity()).putInt(0).putInt(offset);
+        return buffer;
+    }
+
+    private static byte[] fill(ByteBuffer buffer, Random random) {
+        byte[] rest = new byte[buffer.remaining()];
+        random.nextBytes(rest);
+        buffer.put(rest);
+        return buffer.array();
+    }
+
+    /**
+     * Decodes bitmap file by {@link StreamDecoder}
+     * @param file bitmap file
+     * @return decoded text
+     * @throws IOException if compressed text is corrupted
+     */
+    static byte[] streamDecode(byte[] file) throws IOException {
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        new StreamDecoder().decode(Channels.newChannel(new ByteArrayInputStream(file)), Channels.newChannel(text));
+        return text.toByteArray();
+    }
+
+    /**
+     * Decodes bitmap file by {@link Decoder#decodeTo(java.nio.channels.WritableByteChannel)}
+     * @param decoder decoder of bitmap
+     * @return decoded text
+     * @throws IOException if compressed text is corrupted
+     */
+    static byte[] decodeTo(Decoder decoder) throws IOException {
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        decoder.decodeTo(Channels.newChannel(text));
+        return text.toByteArray();
+    }
+
+    /**
+     * Payload of random bytes, half of payloads are compressible
+     */
+    static byte[] payload(int size, Random random) {
+        byte[] payload = new byte[size];
+        if (random.nextBoolean()) {
+            random.nextBytes(payload);
+        } else {
+            for (int i = 0; i < size; i++) {
+                payload[i] = (byte) ('a' + random.nextInt(4));
+            }
+        }
+        return payload;
+    }
+
+    /**
+     * @throws AssertionError with message if condition doesn't hold
+     */
+    static void require(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package by.spalex.bmp.coder;
+
+import by.spalex.bmp.bitmap.Bitmap;
+import by.spalex.bmp.bitmap.PixelCursor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import static by.spalex.bmp.coder.CheckBitmaps.require;
+
+/**
+ * Checks frame header: headers of older versions without magic are decoded, corrupted headers and bitmaps
+ * which were never encoded are rejected. Fails by {@link AssertionError}
+ */
+public final class FrameCheck {
+
+    // bits per pixel and bitfields flag of patterns with frame header
+    private static final int[][] FORMATS = {{32, 0}, {24, 0}, {16, 0}, {16, 1}};
+
+    private final Random random = new Random(2);
+    private int cases;
+
+    public static void main(String[] args) throws IOException {
+        FrameCheck check = new FrameCheck();
+        for (int[] format : FORMATS) {
+            check.checkLegacy(format[0], format[1] != 0);
+            check.checkCorrupted(format[0], format[1] != 0);
+            check.checkInflatedLength(format[0], format[1] != 0);
+            check.checkNotEncoded(format[0], format[1] != 0);
+        }
+        for (int bpp : new int[]{1, 4, 8}) {
+            check.checkCorePalette(bpp);
+        }
+        System.out.println("FrameCheck: " + check.cases + " cases passed");
+    }
+
+    /**
+     * Header of older versions is big-endian size with compression flag followed by text
+     */
+    private void checkLegacy(int bpp, boolean bitfields) throws IOException {
+        byte[] carrier = CheckBitmaps.info(47, 31, bpp, bitfields, random);
+        long capacity = new Bitmap(carrier).getEncodeCapacity();
+        for (boolean compression : new boolean[]{false, true}) {
+            byte[] payload = CheckBitmaps.payload(1 + random.nextInt((int) capacity), random);
+            byte[] frame;
+            if (compression) {
+                byte[] deflated = deflate(payload);
+                frame = ByteBuffer.allocate(8 + deflated.length).putInt(Encoder.COMPRESSED | 4 + deflated.length)
+                        .putInt(payload.length).put(deflated).array();
+            } else {
+                frame = ByteBuffer.allocate(4 + payload.length).putInt(payload.length).put(payload).array();
+            }
+            byte[] file = embed(carrier, frame);
+            String name = bpp + " bits legacy" + (compression ? " compressed" : "");
+            Decoder decoder = new Decoder(new Bitmap(file));
+            require(!decoder.hasPayload(), name + ": header without magic is accepted");
+            require(decoder.hasPayload(true), name + ": header without magic is rejected by legacy check");
+            require(Arrays.equals(decoder.decodeBytes(), payload), name + ": decodeBytes differs");
+            require(Arrays.equals(CheckBitmaps.decodeTo(decoder), payload), name + ": decodeTo differs");
+            require(Arrays.equals(CheckBitmaps.streamDecode(file), payload), name + ": StreamDecoder differs");
+            cases++;
+        }
+    }
+
+    /**
+     * Every bit of header is covered by magic or CRC, so bitmap with any flipped bit holds no text
+     */
+    private void checkCorrupted(int bpp, boolean bitfields) throws IOException {
+        byte[] carrier = CheckBitmaps.info(59, 23, bpp, bitfields, random);
+        Bitmap bitmap = new Bitmap(carrier);
+        EncodePattern pattern = EncodePattern.of(bitmap.getBitmapHeader());
+        DepthLayout[] layouts = {null, DepthLayout.of(bitmap, 2, EnumSet.of(ColorChannel.GREEN))};
+        for (DepthLayout layout : layouts) {
+            Encoder encoder = new Encoder(bitmap);
+            if (layout != null) {
+                encoder.setLayout(2, EnumSet.of(ColorChannel.GREEN));
+            }
+            byte[] payload = CheckBitmaps.payload(1 + random.nextInt((int) encoder.getEncodeCapacity()), random);
+            byte[] file = encoder.encode(payload);
+            byte[] header = new byte[FrameHeader.length(pattern, layout)];
+            FrameHeader.write(header, pattern, layout, payload.length);
+            for (int bit = 0; bit < header.length * 8; bit++) {
+                byte[] corrupted = header.clone();
+                corrupted[bit / 8] ^= 0x80 >>> bit % 8;
+                byte[] damaged = embed(file, corrupted);
+                String name = bpp + " bits" + (layout != null ? " layout" : "") + ", bit " + bit + " flipped";
+                Decoder decoder = new Decoder(new Bitmap(damaged));
+                require(!decoder.hasPayload(true), name + ": corrupted header is accepted");
+                require(decoder.decodeBytes().length == 0, name + ": corrupted header is decoded");
+                require(CheckBitmaps.streamDecode(damaged).length == 0, name + ": corrupted header is streamed");
+                cases++;
+            }
+        }
+    }
+
+    /**
+     * Original length of compressed text which deflated bytes can't produce is rejected by all decoders alike
+     */
+    private void checkInflatedLength(int bpp, boolean bitfields) throws IOException {
+        byte[] carrier = CheckBitmaps.info(41, 19, bpp, bitfields, random);
+        EncodePattern pattern = EncodePattern.of(new Bitmap(carrier).getBitmapHeader());
+        byte[] deflated = deflate(CheckBitmaps.payload(100, random));
+        int size = 4 + deflated.length;
+        for (int length : new int[]{-1, deflated.length * 1032 + 1}) {
+            byte[] frame = new byte[FrameHeader.LENGTH + size];
+            FrameHeader.write(frame, pattern, null, Encoder.COMPRESSED | size);
+            ByteBuffer.wrap(frame, FrameHeader.LENGTH, size).putInt(length).put(deflated);
+            byte[] file = embed(carrier, frame);
+            String name = bpp + " bits, original length " + length;
+            Decoder decoder = new Decoder(new Bitmap(file));
+            require(decoder.decodeBytes().length == 0, name + ": decodeBytes accepts length");
+            require(CheckBitmaps.decodeTo(decoder).length == 0, name + ": decodeTo accepts length");
+            require(CheckBitmaps.streamDecode(file).length == 0, name + ": StreamDecoder accepts length");
+            cases++;
+        }
+    }
+
+    private void checkNotEncoded(int bpp, boolean bitfields) {
+        for (int i = 0; i < 100; i++) {
+            Bitmap bitmap = new Bitmap(CheckBitmaps.info(64, 64, bpp, bitfields, random));
+            require(!new Decoder(bitmap).hasPayload(), bpp + " bits: bitmap which was never encoded is accepted");
+            cases++;
+        }
+    }
+
+    /**
+     * Palette entries of core header have no reserved byte, so they hold no text
+     */
+    private void checkCorePalette(int bpp) throws IOException {
+        byte[] file = CheckBitmaps.core(37, 29, bpp, random);
+        Bitmap bitmap = new Bitmap(file);
+        String name = bpp + " bits core header";
+        require(bitmap.getEncodeCapacity() == 0, name + ": palette has capacity");
+        try {
+            new Encoder(bitmap).encode(new byte[0]);
+            throw new AssertionError(name + ": palette is encoded");
+        } catch (IllegalArgumentException expected) {
+            // palette has no room for text
+        }
+        require(!new Decoder(bitmap).hasPayload(true), name + ": palette holds text");
+        require(CheckBitmaps.streamDecode(file).length == 0, name + ": palette is streamed");
+        cases++;
+    }
+
+    /**
+     * Writes encoded bytes into samples of bitmap pattern from the first one
+     * @return copy of file with encoded bytes
+     */
+    private static byte[] embed(byte[] file, byte[] bytes) {
+        byte[] copy = file.clone();
+        Bitmap bitmap = new Bitmap(copy);
+        EncodePattern pattern = EncodePattern.of(bitmap.getBitmapHeader());
+        PixelCursor cursor = pattern.cursor(bitmap);
+        require(bytes.length <= cursor.getSampleCount(), "Frame of " + bytes.length + " bytes doesn't fit");
+        ByteBuffer image = ByteBuffer.wrap(copy).order(ByteOrder.LITTLE_ENDIAN);
+        for (int from = 0; from < bytes.length; ) {
+            int count = Math.min(cursor.getRun(), bytes.length - from);
+            pattern.embed(image, (int) cursor.getOffset() + pattern.getShift(), bytes, from, count);
+            cursor.advance(count);
+            from += count;
+        }
+        return copy;
+    }
+
+    private static byte[] deflate(byte[] payload) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(payload);
+            deflater.finish();
+            byte[] buffer = new byte[payload.length + 64];
+            int length = 0;
+            while (!deflater.finished()) {
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            return Arrays.copyOf(buffer, length);
+        } finally {
+            deflater.end();
+        }
+    }
+}
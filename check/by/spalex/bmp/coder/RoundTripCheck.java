@@ -0,0 +1,109 @@
+package by.spalex.bmp.coder;
+
+import by.spalex.bmp.bitmap.Bitmap;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static by.spalex.bmp.coder.CheckBitmaps.require;
+
+/**
+ * Encodes random payloads into bitmaps of every supported pattern and every layout depth and checks that
+ * all decoders return them back. Fails by {@link AssertionError}
+ */
+public final class RoundTripCheck {
+
+    // bits per pixel and bitfields flag of every pattern
+    private static final int[][] FORMATS = {{32, 0}, {24, 0}, {16, 0}, {16, 1}, {8, 0}, {4, 0}, {1, 0}};
+    private static final List<Set<ColorChannel>> CHANNELS = Arrays.asList(
+            EnumSet.of(ColorChannel.BLUE),
+            EnumSet.of(ColorChannel.BLUE, ColorChannel.GREEN, ColorChannel.RED),
+            EnumSet.allOf(ColorChannel.class));
+
+    private final Random random = new Random(1);
+    private int cases;
+
+    public static void main(String[] args) throws IOException {
+        RoundTripCheck check = new RoundTripCheck();
+        for (int[] format : FORMATS) {
+            check.checkPattern(format[0], format[1] != 0);
+            if (format[0] >= 16) {
+                check.checkLayouts(format[0], format[1] != 0);
+            }
+        }
+        System.out.println("RoundTripCheck: " + check.cases + " cases passed");
+    }
+
+    private void checkPattern(int bpp, boolean bitfields) throws IOException {
+        for (int height : new int[]{37, -37}) {
+            Bitmap bitmap = new Bitmap(CheckBitmaps.info(53, height, bpp, bitfields, random));
+            long capacity = bitmap.getEncodeCapacity();
+            require(capacity > 0, bpp + " bits: no capacity");
+            for (long size : new long[]{0, 1, random.nextInt((int) capacity), capacity}) {
+                byte[] payload = CheckBitmaps.payload((int) size, random);
+                String name = bpp + " bits" + (bitfields ? " bitfields" : "") + ", height " + height
+                        + ", " + size + " bytes";
+                for (boolean compression : new boolean[]{false, true}) {
+                    Encoder encoder = new Encoder(bitmap);
+                    encoder.setCompression(compression);
+                    check(name, encoder.encode(payload), payload);
+                    check(name + " parallel", encoder.encodeParallel(payload, 64).toByteArray(), payload);
+                    check(name + " channel", encoder.encode(Channels.newChannel(new ByteArrayInputStream(payload)),
+                            payload.length).toByteArray(), payload);
+                }
+                try {
+                    new Encoder(bitmap).encode(new byte[(int) capacity + 1]);
+                    throw new AssertionError(name + ": payload over capacity is encoded");
+                } catch (IllegalArgumentException expected) {
+                    // payload doesn't fit
+                }
+            }
+        }
+    }
+
+    private void checkLayouts(int bpp, boolean bitfields) throws IOException {
+        Bitmap bitmap = new Bitmap(CheckBitmaps.info(61, 29, bpp, bitfields, random));
+        for (int depth = 1; depth <= DepthLayout.MAX_DEPTH; depth++) {
+            int layouts = 0;
+            for (Set<ColorChannel> channels : CHANNELS) {
+                Encoder encoder = new Encoder(bitmap);
+                try {
+                    encoder.setLayout(depth, channels);
+                } catch (IllegalArgumentException e) {
+                    // some channel has less than depth bits
+                    continue;
+                }
+                layouts++;
+                long capacity = encoder.getEncodeCapacity();
+                require(capacity > 0, bpp + " bits, depth " + depth + ": no capacity");
+                for (long size : new long[]{1, random.nextInt((int) capacity), capacity}) {
+                    byte[] payload = CheckBitmaps.payload((int) size, random);
+                    String name = bpp + " bits" + (bitfields ? " bitfields" : "") + ", depth " + depth + ", "
+                            + channels + ", " + size + " bytes";
+                    for (boolean compression : new boolean[]{false, true}) {
+                        encoder.setCompression(compression);
+                        check(name, encoder.encode(payload), payload);
+                        check(name + " parallel", encoder.encodeParallel(payload, 64).toByteArray(), payload);
+                    }
+                }
+            }
+            require(layouts > 0, bpp + " bits, depth " + depth + ": no layout is checked");
+        }
+    }
+
+    private void check(String name, byte[] file, byte[] payload) throws IOException {
+        Decoder decoder = new Decoder(new Bitmap(file));
+        require(decoder.hasPayload() == (payload.length > 0), name + ": hasPayload is wrong");
+        require(Arrays.equals(decoder.decodeBytes(), payload), name + ": decodeBytes differs");
+        require(Arrays.equals(decoder.decodeBytesParallel(64), payload), name + ": decodeBytesParallel differs");
+        require(Arrays.equals(CheckBitmaps.decodeTo(decoder), payload), name + ": decodeTo differs");
+        require(Arrays.equals(CheckBitmaps.streamDecode(file), payload), name + ": StreamDecoder differs");
+        cases++;
+    }
+}
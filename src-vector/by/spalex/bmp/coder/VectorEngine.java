@@ -0,0 +1,162 @@
+package by.spalex.bmp.coder;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Engine embedding encoded bytes by SIMD instructions of jdk.incubator.vector.
+ * Image is processed by groups of whole vectors holding whole encoded bytes. Every lane of group has constant
+ * bit mask and shifts, so embedding is a shuffle of encoded bytes followed by masked blend.
+ * Whole-byte patterns, extraction and encoded bytes not filling a whole group are handled by scalar code
+ */
+final class VectorEngine extends EncodeEngine {
+
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+    private final Plan[] plans = new Plan[EncodePattern.values().length];
+
+    VectorEngine() {
+        if (SPECIES.length() < 16) {
+            throw new UnsupportedOperationException("Vector length " + SPECIES.length() + " is too small");
+        }
+        for (EncodePattern pattern : EncodePattern.values()) {
+            // whole-byte patterns are a plain strided copy, scalar code is already optimal for them
+            if (pattern != EncodePattern.COLOR_PALETTE && pattern != EncodePattern.RGB888) {
+                plans[pattern.ordinal()] = new Plan(pattern);
+            }
+        }
+    }
+
+    @Override
+    void embed(EncodePattern pattern, ByteBuffer image, int offset, byte[] values, int from, int count) {
+        Plan plan = plans[pattern.ordinal()];
+        if (plan == null) {
+            pattern.embedScalar(image, offset, values, from, count);
+            return;
+        }
+        int groups = Math.min(count / plan.payload, (image.limit() - offset) / plan.groupSize);
+        for (int group = 0; group < groups; group++) {
+            plan.embed(image, offset, values, from);
+            offset += plan.groupSize;
+            from += plan.payload;
+        }
+        pattern.embedScalar(image, offset, values, from, count - groups * plan.payload);
+    }
+
+    @Override
+    void extract(EncodePattern pattern, ByteBuffer image, int offset, byte[] values, int from, int count) {
+        // extraction reads 12-16 file bytes per encoded byte and is bound by loads, vectors don't beat word code
+        pattern.extractScalar(image, offset, values, from, count);
+    }
+
+    @Override
+    String getName() {
+        return "vector" + SPECIES.vectorBitSize();
+    }
+
+    /**
+     * Precomputed lane constants of one pattern
+     */
+    private static final class Plan {
+        // image bytes of group, the least common multiple of vector length and stride
+        private final int groupSize;
+        // vectors in group
+        private final int phases;
+        // encoded bytes in group
+        private final int payload;
+        private final VectorMask<Byte> payloadMask;
+        // per phase: encoded byte of lane, bits of lane, shifts between lane bits and encoded byte bits
+        private final VectorShuffle<Byte>[] spread;
+        private final ByteVector[] mask;
+        private final ByteVector[] keep;
+        private final ByteVector[] valueShift;
+        private final ByteVector[] sampleShift;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private Plan(EncodePattern pattern) {
+            int length = SPECIES.length();
+            int stride = pattern.getStride();
+            groupSize = length / gcd(length, stride) * stride;
+            phases = groupSize / length;
+            payload = groupSize / stride;
+            payloadMask = SPECIES.indexInRange(0, payload);
+
+            int[][] lanes = lanes(pattern);
+            spread = new VectorShuffle[phases];
+            mask = new ByteVector[phases];
+            keep = new ByteVector[phases];
+            valueShift = new ByteVector[phases];
+            sampleShift = new ByteVector[phases];
+            for (int phase = 0; phase < phases; phase++) {
+                int[] indexes = new int[length];
+                byte[] masks = new byte[length];
+                byte[] valueShifts = new byte[length];
+                byte[] sampleShifts = new byte[length];
+                for (int lane = 0; lane < length; lane++) {
+                    int position = phase * length + lane;
+                    int[] sample = lanes[position % stride];
+                    indexes[lane] = position / stride;
+                    masks[lane] = (byte) sample[0];
+                    valueShifts[lane] = (byte) sample[1];
+                    sampleShifts[lane] = (byte) sample[2];
+                }
+                spread[phase] = VectorShuffle.fromArray(SPECIES, indexes, 0);
+                mask[phase] = ByteVector.fromArray(SPECIES, masks, 0);
+                keep[phase] = mask[phase].not();
+                valueShift[phase] = ByteVector.fromArray(SPECIES, valueShifts, 0);
+                sampleShift[phase] = ByteVector.fromArray(SPECIES, sampleShifts, 0);
+            }
+        }
+
+        private void embed(ByteBuffer image, int offset, byte[] values, int from) {
+            ByteVector encoded = ByteVector.fromArray(SPECIES, values, from, payloadMask);
+            for (int phase = 0; phase < phases; phase++) {
+                int index = offset + phase * SPECIES.length();
+                ByteVector bits = encoded.rearrange(spread[phase])
+                        .lanewise(VectorOperators.LSHR, valueShift[phase])
+                        .lanewise(VectorOperators.LSHL, sampleShift[phase])
+                        .and(mask[phase]);
+                ByteVector.fromByteBuffer(SPECIES, image, index, ByteOrder.LITTLE_ENDIAN)
+                        .and(keep[phase])
+                        .or(bits)
+                        .intoByteBuffer(image, index, ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+
+        /**
+         * Describes file bytes of one encoded byte
+         * @return for every byte of stride: mask of bits holding encoded bits, shift of encoded byte giving
+         * these bits and shift of these bits inside file byte
+         */
+        private static int[][] lanes(EncodePattern pattern) {
+            int[][] lanes = new int[pattern.getStride()][3];
+            switch (pattern) {
+                case TRUE_COLOR:
+                    for (int sample = 0; sample < 4; sample++) {
+                        lanes[sample * 3] = new int[]{0x03, sample * 2, 0};
+                    }
+                    break;
+                case RGB555:
+                    for (int sample = 0; sample < 8; sample++) {
+                        lanes[sample * 2] = new int[]{0x01, sample, 0};
+                    }
+                    break;
+                case RGB444:
+                    lanes[0] = new int[]{0xf0, 4, 4};
+                    lanes[2] = new int[]{0xf0, 0, 4};
+                    break;
+            }
+            return lanes;
+        }
+
+        private static int gcd(int a, int b) {
+            return b == 0 ? a : gcd(b, a % b);
+        }
+    }
+}
@@ -2,10 +2,14 @@ package by.spalex.bmp.bitmap;
 
 import by.spalex.bmp.bitmap.header.*;
 
-import java.awt.*;
+import java.io.EOFException;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.Arrays;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 /**
  * Class describing structure of bitmap file
@@ -13,22 +17,130 @@ import java.util.Arrays;
 public class Bitmap {
 
     private static final int HEADER_SIZE = 14;
-    private final byte[] bytes;
+    private static final int INFO_HEADER_SIZE = 40;
+    // begin of file read by probe, the largest headers with masks and palette of 256 colors fit into it
+    private static final int PROBE_SIZE = 2048;
+    // encoded bytes of frame header of bitmaps without palette: magic, size and CRC
+    private static final int FRAME_SIZE = 12;
+    private static final int RGBQUAD_SIZE = 4;
+    private static final int RGBTRIPLE_SIZE = 3;
+    // read-only content of the whole file, shared by all readers
+    private final BitmapData data;
     private final Header header;
     private BitmapHeader bitmapHeader;
-    private Color bitmask;
-    private Color[] palette;
+    // masks of red, green, blue and alpha, null for bitmaps with palette
+    private int[] bitmask;
+    // colors of palette as ARGB
+    private int[] palette;
     private int paletteOffset = 0;
+    // bytes of palette entry, RGBQUAD of info header has reserved byte holding text, RGBTRIPLE of core header has not
+    private int paletteEntrySize = RGBQUAD_SIZE;
+    // offsets of rows in storage order, computed once on demand
+    private volatile long[] rowOffsets;
 
     /**
-     * Constructs bitmap from file as byte array
+     * Constructs bitmap from file as byte array.
+     * The array is not copied, so it must not be modified after bitmap creation
      * @param bytes bitmap file as byte array
      */
     public Bitmap(byte[] bytes) {
-        this.bytes = Arrays.copyOf(bytes, bytes.length);
-        header = new Header(bytes);
-        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
-        setBitmapHeader(buffer);
+        this(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Constructs bitmap from file content between buffer's position and limit.
+     * The content is not copied, so it must not be modified after bitmap creation
+     * @param buffer bitmap file as ByteBuffer
+     */
+    public Bitmap(ByteBuffer buffer) {
+        this(BitmapData.wrap(buffer));
+    }
+
+    /**
+     * Constructs bitmap from file content
+     * @param data bitmap file content
+     */
+    public Bitmap(BitmapData data) {
+        // headers and palette lie at begin of file, so only first pages of mapped file are touched
+        this(data, data.view(0, (int) Math.min(data.size(), BitmapData.MAX_VIEW)), data.size());
+    }
+
+    private Bitmap(BitmapData data, ByteBuffer headers, long size) {
+        this.data = data;
+        header = new Header(headers, size);
+        setBitmapHeader(headers.duplicate().order(ByteOrder.LITTLE_ENDIAN));
+    }
+
+    /**
+     * Constructs bitmap from headers and palette only. Such bitmap describes format and capacity of file,
+     * but has no access to file content
+     * @param headers begin of file up to image data at least
+     * @param size    size of whole file
+     * @return bitmap without file content
+     */
+    public static Bitmap fromHeaders(ByteBuffer headers, long size) {
+        return new Bitmap(null, headers.slice(), size);
+    }
+
+    /**
+     * Opens bitmap file by mapping it into memory. File content is not read into heap, so files larger
+     * than 2 GB are supported. File must not be modified while bitmap is in use
+     * @param path path of bitmap file
+     * @return bitmap instance
+     * @throws IOException in case of file reading error
+     */
+    public static Bitmap open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new Bitmap(BitmapData.map(channel));
+        }
+    }
+
+    /**
+     * Reads headers and palette of bitmap file without image data, see {@link #probe(SeekableByteChannel)}
+     * @param path path of bitmap file
+     * @return bitmap without file content
+     * @throws IOException              in case of file reading error
+     * @throws IllegalArgumentException if bitmap headers are invalid
+     */
+    public static Bitmap probe(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return probe(channel);
+        }
+    }
+
+    /**
+     * Reads headers and palette of bitmap file without image data. Usually only the first 2048 bytes are read,
+     * larger palettes are read by one more request. Returned bitmap describes format, dimensions and
+     * encode capacity of file, but has no access to file content
+     * @param channel channel with bitmap file, its position is changed
+     * @return bitmap without file content
+     * @throws IOException              in case of read error
+     * @throws IllegalArgumentException if bitmap headers are invalid
+     */
+    public static Bitmap probe(SeekableByteChannel channel) throws IOException {
+        long size = channel.size();
+        ByteBuffer headers = readPrefix(channel, (int) Math.min(size, PROBE_SIZE));
+        Bitmap bitmap = new Bitmap(null, headers, size);
+        long paletteSize = Math.max(0, bitmap.bitmapHeader.getPaletteSize());
+        if (bitmap.palette.length < paletteSize && headers.limit() < Math.min(size, bitmap.header.getOffset())) {
+            // palette is cut by probed bytes, entries lying outside of file or over image data are not read
+            long paletteEnd = bitmap.paletteOffset + (long) bitmap.paletteEntrySize * paletteSize;
+            long end = Math.min(Math.min(size, bitmap.header.getOffset()), paletteEnd);
+            bitmap = new Bitmap(null, readPrefix(channel, (int) end), size);
+        }
+        return bitmap;
+    }
+
+    private static ByteBuffer readPrefix(SeekableByteChannel channel, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        channel.position(0);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Bitmap ends before " + length + " bytes");
+            }
+        }
+        buffer.flip();
+        return buffer;
     }
 
     /**
@@ -39,51 +151,76 @@ public class Bitmap {
     private void setBitmapHeader(ByteBuffer buffer) {
         long bitmapHeaderSize = Integer.toUnsignedLong(buffer.getInt(HEADER_SIZE));
         int offset = HEADER_SIZE;
+        int entrySize = RGBQUAD_SIZE;
         if (BitmapInfoHeader.isSupportedSize((int) bitmapHeaderSize)) {
             BitmapInfoHeader bitmapInfoHeader = new BitmapInfoHeader(buffer);
-            offset += bitmapInfoHeader.getSize();
-            if (bitmapInfoHeader.getCompression().equals(Compression.BI_BITFIELDS)) {
-                if (header.getOffset() >= offset + 16) {
-                    bitmask = new Color(buffer.getInt(offset), buffer.getInt(offset + 4),
-                            buffer.getInt(offset + 8));
-                    offset = +24;
-                }
-            } else if (bitmapInfoHeader.getCompression().equals(Compression.BI_ALPHABITFIELDS)) {
-                if (header.getOffset() >= offset + 20) {
-                    bitmask = new Color(buffer.getInt(offset), buffer.getInt(offset + 4),
-                            buffer.getInt(offset + 8), buffer.getInt(offset + 16));
-                    offset = +24;
-                }
-            }
             this.bitmapHeader = bitmapInfoHeader;
+            offset = setBitmasks(buffer, offset + bitmapInfoHeader.getSize());
         } else if (bitmapHeaderSize == BitmapCoreHeader.HEADER_SIZE) {
             bitmapHeader = new BitmapCoreHeader(buffer);
             offset += bitmapHeader.getSize();
+            entrySize = RGBTRIPLE_SIZE;
         } else {
             throw new IllegalArgumentException("Invalid BitmapHeader size " + bitmapHeaderSize);
         }
-        filPalette(bitmapHeader.getPaletteSize(), buffer, offset);
+        filPalette(bitmapHeader.getPaletteSize(), buffer, offset, entrySize);
     }
 
     /**
-     * fill color palette
-     * @param size size of palette
+     * Sets masks of red, green, blue and alpha channels of HIGH COLOR and DEEP COLOR pixels
      * @param buffer bitmap file as ByteBuffer
-     * @param offset palette offset from begin of file
+     * @param offset end of info header from begin of file
+     * @return end of masks from begin of file
      */
-    private void filPalette(short size, ByteBuffer buffer, int offset) {
-        palette = new Color[size];
+    private int setBitmasks(ByteBuffer buffer, int offset) {
+        Compression compression = bitmapHeader.getCompression();
+        if (compression == Compression.BI_BITFIELDS || compression == Compression.BI_ALPHABITFIELDS) {
+            int masks = compression == Compression.BI_ALPHABITFIELDS ? 4 : 3;
+            // masks always start right after the first 40 bytes of info header
+            int start = HEADER_SIZE + INFO_HEADER_SIZE;
+            // masks follow the 40-byte header, larger headers contain them
+            int end = bitmapHeader.getSize() == INFO_HEADER_SIZE ? offset + 4 * masks : offset;
+            if (start + 4 * masks > Math.min(end, header.getOffset())) {
+                // malformed file without masks, its pixels still can hold encoded text
+                return offset;
+            }
+            bitmask = new int[4];
+            for (int i = 0; i < masks; i++) {
+                bitmask[i] = buffer.getInt(start + 4 * i);
+            }
+            return end;
+        } else if (compression == Compression.BI_RGB) {
+            switch (bitmapHeader.getBitsPerPixel()) {
+                case HIGH_COLOR:
+                    bitmask = new int[]{0x7c00, 0x03e0, 0x001f, 0};
+                    break;
+                case DEEP_COLOR:
+                    bitmask = new int[]{0xff0000, 0x00ff00, 0x0000ff, 0};
+                    break;
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * fill color palette
+     * @param size      size of palette
+     * @param buffer    bitmap file as ByteBuffer
+     * @param offset    palette offset from begin of file
+     * @param entrySize size of palette entry
+     */
+    private void filPalette(short size, ByteBuffer buffer, int offset, int entrySize) {
+        // entries overlapping image data are not part of palette, probed bitmaps have only begin of file
+        long available = Math.max(0, (Math.min(header.getOffset(), buffer.limit()) - offset) / entrySize);
+        palette = new int[(int) Math.min(Math.max(0, size), available)];
         paletteOffset = offset;
-        for (int i = 0; i < size; i++) {
+        paletteEntrySize = entrySize;
+        for (int i = 0; i < palette.length; i++, offset += entrySize) {
             int b = Byte.toUnsignedInt(buffer.get(offset));
-            offset = +4;
-            int g = Byte.toUnsignedInt(buffer.get(offset));
-            offset = +4;
-            int r = Byte.toUnsignedInt(buffer.get(offset));
-            offset = +4;
-            int a = Byte.toUnsignedInt(buffer.get(offset));
-            offset = +4;
-            palette[i] = new Color(r, g, b, a);
+            int g = Byte.toUnsignedInt(buffer.get(offset + 1));
+            int r = Byte.toUnsignedInt(buffer.get(offset + 2));
+            // reserved byte holds encoded text, so colors are opaque
+            palette[i] = 0xff000000 | r << 16 | g << 8 | b;
         }
     }
 
@@ -93,9 +230,39 @@ public class Bitmap {
 
     /**
      * @return copy of file as byte array
+     * @throws IllegalStateException if file is larger than 2 GB
      */
     public byte[] getBytes() {
-        return Arrays.copyOf(bytes, bytes.length);
+        byte[] bytes = new byte[checkedSize()];
+        data.read(0, bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    /**
+     * Returns read-only view of file without copying it. Every call returns independent view,
+     * so views can be used by different threads at the same time
+     * @return file as little-endian read-only ByteBuffer
+     * @throws IllegalStateException if file is larger than 2 GB
+     */
+    public ByteBuffer getBuffer() {
+        return data.view(0, checkedSize());
+    }
+
+    /**
+     * @return file content with 64-bit addressing
+     */
+    public BitmapData getData() {
+        if (data == null) {
+            throw new IllegalStateException("Bitmap has headers only");
+        }
+        return data;
+    }
+
+    private int checkedSize() {
+        if (getData().size() > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("Bitmap is too large for single buffer " + data.size());
+        }
+        return (int) data.size();
     }
 
     public Header getHeader() {
@@ -106,16 +273,26 @@ public class Bitmap {
         return bitmapHeader;
     }
 
-    public Color getBitmask() {
-        return bitmask;
+    /**
+     * @return masks of red, green, blue and alpha channels of pixel, default masks for BI_RGB compression,
+     * null for bitmaps with palette or without masks
+     */
+    public int[] getBitmask() {
+        return bitmask == null ? null : bitmask.clone();
     }
 
     /**
-     * @return number of pixels in row
+     * @return colors of palette as opaque ARGB
      */
-    private long getRowSize() {
-        double value = (bitmapHeader.getBitsPerPixel().getValue() * bitmapHeader.getWidth() + 31) / 32;
-        return (long) (Math.floor(value) * 4);
+    public int[] getPalette() {
+        return palette.clone();
+    }
+
+    /**
+     * @return count of bytes in row including padding to 4 bytes
+     */
+    public long getRowSize() {
+        return (bitmapHeader.getBitsPerPixel().getValue() * bitmapHeader.getWidth() + 31) / 32 * 4;
     }
 
     /**
@@ -125,30 +302,119 @@ public class Bitmap {
         return getRowSize() * bitmapHeader.getHeight();
     }
 
+    /**
+     * @param row index of image row, 0 is the top row
+     * @return offset of row from begin of file
+     * @throws IllegalStateException if image data is RLE compressed
+     */
+    public long getRowOffset(long row) {
+        checkUncompressed();
+        long storageRow = bitmapHeader.isTopDown() ? row : bitmapHeader.getHeight() - 1 - row;
+        return header.getOffset() + storageRow * getRowSize();
+    }
+
+    /**
+     * Rows lying outside of file are not included, so truncated files are never overestimated
+     * @return offsets of rows from begin of file in storage order
+     */
+    private long[] getRowOffsets() {
+        long[] offsets = rowOffsets;
+        if (offsets == null) {
+            long rowSize = getRowSize();
+            offsets = new long[getStoredRows()];
+            for (int row = 0; row < offsets.length; row++) {
+                offsets[row] = header.getOffset() + row * rowSize;
+            }
+            rowOffsets = offsets;
+        }
+        return offsets;
+    }
+
+    /**
+     * @return count of rows lying inside of file
+     */
+    private int getStoredRows() {
+        long rowSize = getRowSize();
+        long rows = rowSize == 0 ? 0 : Math.max(0, (header.getSize() - header.getOffset()) / rowSize);
+        return (int) Math.min(Math.min(rows, bitmapHeader.getHeight()), Integer.MAX_VALUE - 8);
+    }
+
+    /**
+     * Creates cursor over samples of image data
+     * @param samplePixels count of pixels in sample
+     * @return new cursor
+     * @throws IllegalStateException if pixels don't occupy whole bytes or image data is RLE compressed
+     */
+    public PixelCursor getPixelCursor(int samplePixels) {
+        int samplesPerRow = getSamplesPerRow(samplePixels);
+        int bitsPerPixel = bitmapHeader.getBitsPerPixel().getValue();
+        return new PixelCursor(getRowOffsets(), samplesPerRow, samplePixels * bitsPerPixel / 8);
+    }
+
+    /**
+     * Counts samples like {@link PixelCursor#getSampleCount()} without computing offsets of rows
+     * @param samplePixels count of pixels in sample
+     * @return count of samples of image data
+     */
+    private long getSampleCount(int samplePixels) {
+        int samplesPerRow = getSamplesPerRow(samplePixels);
+        return samplesPerRow > 0 ? (long) getStoredRows() * samplesPerRow : 0;
+    }
+
+    private int getSamplesPerRow(int samplePixels) {
+        checkUncompressed();
+        int bitsPerPixel = bitmapHeader.getBitsPerPixel().getValue();
+        if (bitsPerPixel % 8 != 0) {
+            throw new IllegalStateException("Pixels of " + bitsPerPixel + " bits don't occupy whole bytes");
+        }
+        return (int) Math.min(Integer.MAX_VALUE, bitmapHeader.getWidth() / samplePixels);
+    }
+
+    /**
+     * RLE compressed rows have variable length, they are read by {@link RleReader}
+     * @throws IllegalStateException if image data is RLE compressed
+     */
+    private void checkUncompressed() {
+        Compression compression = bitmapHeader.getCompression();
+        if (compression == Compression.BI_RLE8 || compression == Compression.BI_RLE4) {
+            throw new IllegalStateException("Rows of " + compression + " image data have no fixed offsets");
+        }
+    }
+
+    /**
+     * Text is encoded into reserved bytes of palette entries, entries of core header have no reserved byte,
+     * so cursor over them has no samples
+     * @return new cursor over entries of color palette
+     */
+    public PixelCursor getPaletteCursor() {
+        int entries = paletteEntrySize == RGBQUAD_SIZE ? palette.length : 0;
+        return new PixelCursor(new long[]{paletteOffset}, entries, RGBQUAD_SIZE);
+    }
+
     /**
      * Calculate byte that can be encoded into bitmap file
      * @return count of possible bytes for encoding
      */
-    public int getEncodeCapacity() {
-        int pixelCount = (int) (bitmapHeader.getHeight() * bitmapHeader.getWidth());
+    public long getEncodeCapacity() {
         switch (bitmapHeader.getBitsPerPixel()) {
             case DEEP_COLOR:
-                return pixelCount - 4;
+                return Math.max(0, getSampleCount(1) - FRAME_SIZE);
             case HIGH_COLOR: {
                 switch (bitmapHeader.getCompression()) {
                     case BI_RGB:
-                        return (int) (Math.ceil(pixelCount / 8) - 4);
+                        return Math.max(0, getSampleCount(8) - FRAME_SIZE);
                     case BI_BITFIELDS:
-                        return (int) (Math.ceil(pixelCount / 2) - 4);
+                    case BI_ALPHABITFIELDS:
+                        return Math.max(0, getSampleCount(2) - FRAME_SIZE);
                 }
                 return 0;
             }
             case TRUE_COLOR:
-                return (int) (Math.ceil(pixelCount / 4) - 4);
+                return Math.max(0, getSampleCount(4) - FRAME_SIZE);
             case VGA:
             case EGA:
             case MONOCHROME:
-                return palette.length - 1;
+                return Math.max(0, getPaletteCursor().getSampleCount() - 1);
             default:
                 return 0;
         }
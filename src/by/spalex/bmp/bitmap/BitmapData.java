@@ -0,0 +1,215 @@
+package by.spalex.bmp.bitmap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Read-only content of bitmap file with 64-bit addressing.
+ * Content is either a ByteBuffer or a file mapped into memory by windows, so files larger than 2 GB are supported
+ */
+public abstract class BitmapData {
+
+    /**
+     * Maximum length of view which is guaranteed to be returned by {@link #view(long, int)}
+     */
+    public static final int MAX_VIEW = 1 << 24;
+
+    /**
+     * @return size of file in bytes
+     */
+    public abstract long size();
+
+    /**
+     * @param position offset from begin of file
+     * @return byte at position
+     */
+    public abstract byte get(long position);
+
+    /**
+     * Returns read-only little-endian view of file region. View's index 0 corresponds to position
+     * @param position offset of region from begin of file
+     * @param length   length of region, must not exceed {@link #MAX_VIEW} unless whole file fits into one view
+     * @return view of region
+     * @throws IndexOutOfBoundsException if region is out of file
+     * @throws IllegalArgumentException if region can't be represented as single view
+     */
+    public abstract ByteBuffer view(long position, int length);
+
+    /**
+     * Copies file region to array
+     * @param position offset of region from begin of file
+     * @param dst      destination array
+     * @param offset   offset in destination array
+     * @param length   length of region
+     */
+    public void read(long position, byte[] dst, int offset, int length) {
+        while (length > 0) {
+            int part = Math.min(length, MAX_VIEW);
+            view(position, part).get(dst, offset, part);
+            position += part;
+            offset += part;
+            length -= part;
+        }
+    }
+
+    /**
+     * Writes file region to channel
+     * @param position offset of region from begin of file
+     * @param count    length of region
+     * @param channel  target channel
+     * @throws IOException in case of write error
+     */
+    public void transferTo(long position, long count, WritableByteChannel channel) throws IOException {
+        while (count > 0) {
+            int part = (int) Math.min(count, MAX_VIEW);
+            ByteBuffer view = view(position, part);
+            while (view.hasRemaining()) {
+                channel.write(view);
+            }
+            position += part;
+            count -= part;
+        }
+    }
+
+    /**
+     * Creates channel reading file from position to the end of file
+     * @param position offset from begin of file
+     * @return new channel
+     */
+    public ReadableByteChannel newChannel(long position) {
+        return new ReadableByteChannel() {
+            private long next = position;
+            private boolean open = true;
+
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                if (!open) {
+                    throw new ClosedChannelException();
+                }
+                if (next >= size()) {
+                    return -1;
+                }
+                int length = (int) Math.min(Math.min(dst.remaining(), size() - next), MAX_VIEW);
+                dst.put(view(next, length));
+                next += length;
+                return length;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return open;
+            }
+
+            @Override
+            public void close() {
+                open = false;
+            }
+        };
+    }
+
+    /**
+     * Creates data backed by buffer content between its position and limit. Content is not copied
+     * @param buffer file content
+     * @return bitmap data
+     */
+    public static BitmapData wrap(ByteBuffer buffer) {
+        return new BufferData(buffer.slice().asReadOnlyBuffer());
+    }
+
+    /**
+     * Maps whole file into memory. Mapping stays valid after channel is closed
+     * @param channel file channel opened for reading
+     * @return bitmap data
+     * @throws IOException in case of mapping error
+     */
+    public static BitmapData map(FileChannel channel) throws IOException {
+        return new MappedData(channel);
+    }
+
+    /**
+     * Data backed by single buffer
+     */
+    private static class BufferData extends BitmapData {
+        private final ByteBuffer buffer;
+
+        private BufferData(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public long size() {
+            return buffer.limit();
+        }
+
+        @Override
+        public byte get(long position) {
+            return buffer.get((int) position);
+        }
+
+        @Override
+        public ByteBuffer view(long position, int length) {
+            if (position < 0 || length < 0 || position + length > buffer.limit()) {
+                throw new IndexOutOfBoundsException("Invalid region " + position + "+" + length);
+            }
+            ByteBuffer view = buffer.duplicate();
+            view.limit((int) position + length).position((int) position);
+            return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    /**
+     * Data backed by mapped windows. Every window overlaps the next one by {@link #MAX_VIEW} bytes,
+     * so any region not longer than {@link #MAX_VIEW} lies in one window
+     */
+    private static class MappedData extends BitmapData {
+        private static final int WINDOW_SHIFT = 30;
+        private static final long WINDOW_MASK = (1L << WINDOW_SHIFT) - 1;
+
+        private final long size;
+        private final MappedByteBuffer[] windows;
+
+        private MappedData(FileChannel channel) throws IOException {
+            size = channel.size();
+            windows = new MappedByteBuffer[(int) ((size + WINDOW_MASK) >>> WINDOW_SHIFT)];
+            for (int i = 0; i < windows.length; i++) {
+                long start = (long) i << WINDOW_SHIFT;
+                long length = Math.min(WINDOW_MASK + 1 + MAX_VIEW, size - start);
+                windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+            }
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public byte get(long position) {
+            return windows[(int) (position >>> WINDOW_SHIFT)].get((int) (position & WINDOW_MASK));
+        }
+
+        @Override
+        public ByteBuffer view(long position, int length) {
+            if (position < 0 || length < 0 || position + length > size) {
+                throw new IndexOutOfBoundsException("Invalid region " + position + "+" + length);
+            }
+            if (length == 0) {
+                return ByteBuffer.allocate(0).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            MappedByteBuffer window = windows[(int) (position >>> WINDOW_SHIFT)];
+            int start = (int) (position & WINDOW_MASK);
+            if (start + length > window.limit()) {
+                throw new IllegalArgumentException("Region " + position + "+" + length + " exceeds mapping window");
+            }
+            ByteBuffer view = window.duplicate();
+            view.limit(start + length).position(start);
+            return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package by.spalex.bmp.bitmap;
+
+/**
+ * Cursor over samples of bitmap file. Sample is a fixed count of whole pixels (or one palette entry) which
+ * stores one encoded byte. Samples lie at constant stride inside a row and never cross row boundary, so row
+ * padding and pixels not filling a whole sample at the end of row are jumped over.
+ * Rows are walked in storage order whatever the orientation of bitmap is, so offsets of samples grow.
+ * Row offsets are shared with bitmap, cursor itself allocates nothing. Cursor is not thread-safe,
+ * every thread needs its own instance
+ */
+public final class PixelCursor {
+
+    // file offsets of rows in storage order
+    private final long[] rowOffsets;
+    private final int samplesPerRow;
+    private final int stride;
+
+    private int row;
+    private int column;
+    private long offset;
+
+    PixelCursor(long[] rowOffsets, int samplesPerRow, int stride) {
+        this.rowOffsets = samplesPerRow > 0 ? rowOffsets : new long[0];
+        this.samplesPerRow = samplesPerRow;
+        this.stride = stride;
+        seek(0);
+    }
+
+    /**
+     * @return count of samples in bitmap
+     */
+    public long getSampleCount() {
+        return (long) rowOffsets.length * samplesPerRow;
+    }
+
+    /**
+     * @return distance between first file bytes of neighbouring samples of row
+     */
+    public int getStride() {
+        return stride;
+    }
+
+    /**
+     * @return count of samples in row
+     */
+    public int getSamplesPerRow() {
+        return samplesPerRow;
+    }
+
+    /**
+     * Moves cursor to sample
+     * @param sample index of sample, {@link #getSampleCount()} moves cursor past the last sample
+     * @return this cursor
+     * @throws IndexOutOfBoundsException if there is no such sample
+     */
+    public PixelCursor seek(long sample) {
+        if (sample < 0 || sample > getSampleCount()) {
+            throw new IndexOutOfBoundsException("Invalid sample " + sample);
+        }
+        if (sample == getSampleCount()) {
+            row = rowOffsets.length;
+            column = 0;
+            offset = rowOffsets.length > 0 ? rowOffsets[row - 1] + (long) samplesPerRow * stride : 0;
+        } else {
+            row = (int) (sample / samplesPerRow);
+            column = (int) (sample % samplesPerRow);
+            offset = rowOffsets[row] + (long) column * stride;
+        }
+        return this;
+    }
+
+    /**
+     * @param sample index of sample
+     * @return offset of first file byte of sample from begin of file
+     * @throws IndexOutOfBoundsException if there is no such sample
+     */
+    public long offsetOf(long sample) {
+        if (sample < 0 || sample >= getSampleCount()) {
+            throw new IndexOutOfBoundsException("Invalid sample " + sample);
+        }
+        return rowOffsets[(int) (sample / samplesPerRow)] + sample % samplesPerRow * stride;
+    }
+
+    /**
+     * @return offset of first file byte of current sample from begin of file
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return index of current sample
+     */
+    public long getSample() {
+        return (long) row * samplesPerRow + column;
+    }
+
+    /**
+     * @return count of samples from current one to the end of its row, they lie at constant stride
+     */
+    public int getRun() {
+        return row < rowOffsets.length ? samplesPerRow - column : 0;
+    }
+
+    /**
+     * Moves cursor forward inside row. Cursor jumps to the first sample of the next row when the run ends
+     * @param count count of samples not exceeding {@link #getRun()}
+     * @throws IllegalArgumentException if count exceeds run
+     */
+    public void advance(int count) {
+        if (count < 0 || count > getRun()) {
+            throw new IllegalArgumentException("Invalid count " + count + " for run " + getRun());
+        }
+        column += count;
+        offset += (long) count * stride;
+        if (column == samplesPerRow) {
+            row++;
+            column = 0;
+            if (row < rowOffsets.length) {
+                offset = rowOffsets[row];
+            }
+        }
+    }
+}
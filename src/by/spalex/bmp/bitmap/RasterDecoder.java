@@ -0,0 +1,210 @@
+package by.spalex.bmp.bitmap;
+
+import by.spalex.bmp.bitmap.header.BitmapHeader;
+import by.spalex.bmp.bitmap.header.Bpp;
+import by.spalex.bmp.bitmap.header.Compression;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Decoder of bitmap image data into ARGB pixels. Rows are decoded one by one in storage order straight from
+ * file content, so memory usage is one row whatever the image size is.
+ * Decoder doesn't depend on any UI toolkit, rows are passed to {@link RowWriter}
+ */
+public final class RasterDecoder {
+
+    /**
+     * Consumer of decoded rows
+     */
+    public interface RowWriter {
+        /**
+         * @param y    index of image row, 0 is the top row
+         * @param argb pixels of row as ARGB, array is reused for the next row
+         */
+        void write(int y, int[] argb);
+    }
+
+    private final Bitmap bitmap;
+    private final BitmapHeader header;
+    private final int width;
+    private final int height;
+
+    /**
+     * Create RasterDecoder instance
+     * @param bitmap bitmap with file content
+     * @throws IllegalArgumentException if image is too large for int coordinates
+     */
+    public RasterDecoder(Bitmap bitmap) {
+        this.bitmap = bitmap;
+        header = bitmap.getBitmapHeader();
+        if (header.getWidth() > (Integer.MAX_VALUE - 8) / 4 || header.getHeight() > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Image " + header.getWidth() + "x" + header.getHeight()
+                    + " is too large");
+        }
+        width = (int) header.getWidth();
+        height = (int) header.getHeight();
+    }
+
+    /**
+     * @return width of image in pixels
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return height of image in pixels
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Decodes all rows of image. Rows lying outside of truncated file are decoded as transparent
+     * @param writer consumer of rows
+     * @throws IOException in case of malformed RLE data
+     */
+    public void decode(RowWriter writer) throws IOException {
+        Compression compression = header.getCompression();
+        if (compression == Compression.BI_RLE8 || compression == Compression.BI_RLE4) {
+            decodeRle(writer);
+        } else {
+            decodeRows(writer);
+        }
+    }
+
+    private void decodeRle(RowWriter writer) throws IOException {
+        int[] palette = bitmap.getPalette();
+        byte[] scanline = new byte[width];
+        int[] argb = new int[width];
+        BitmapData data = bitmap.getData();
+        long start = Math.min(bitmap.getHeader().getOffset(), data.size());
+        try (ReadableByteChannel channel = data.newChannel(start)) {
+            RleReader reader = new RleReader(header, channel);
+            long row;
+            while ((row = reader.read(scanline)) >= 0) {
+                for (int x = 0; x < width; x++) {
+                    argb[x] = color(palette, Byte.toUnsignedInt(scanline[x]));
+                }
+                writer.write(imageRow(row), argb);
+            }
+        }
+    }
+
+    private void decodeRows(RowWriter writer) {
+        BitmapData data = bitmap.getData();
+        int rowSize = (int) bitmap.getRowSize();
+        byte[] bytes = new byte[rowSize];
+        int[] argb = new int[width];
+        PixelFormat format = new PixelFormat();
+        for (int row = 0; row < height; row++) {
+            long position = bitmap.getHeader().getOffset() + (long) row * rowSize;
+            int available = (int) Math.max(0, Math.min(rowSize, data.size() - position));
+            if (available < rowSize) {
+                Arrays.fill(bytes, available, rowSize, (byte) 0);
+                if (available == 0) {
+                    Arrays.fill(argb, 0);
+                    writer.write(imageRow(row), argb);
+                    continue;
+                }
+            }
+            data.read(position, bytes, 0, available);
+            format.convert(bytes, argb);
+            writer.write(imageRow(row), argb);
+        }
+    }
+
+    private int imageRow(long storageRow) {
+        return (int) (header.isTopDown() ? storageRow : height - 1 - storageRow);
+    }
+
+    private static int color(int[] palette, int index) {
+        // indices out of palette are shown black like by most viewers
+        return index < palette.length ? palette[index] : 0xff000000;
+    }
+
+    /**
+     * Conversion of packed pixels of one row into ARGB
+     */
+    private final class PixelFormat {
+
+        private final Bpp bpp = header.getBitsPerPixel();
+        private final int[] palette = bitmap.getPalette();
+        // ARGB of every 16-bit pixel value
+        private int[] table;
+        private int[] masks;
+
+        private PixelFormat() {
+            if (bpp == Bpp.HIGH_COLOR || bpp == Bpp.DEEP_COLOR) {
+                masks = bitmap.getBitmask();
+                if (masks == null) {
+                    throw new IllegalArgumentException("Bitmap of " + bpp.getValue() + " bits has no color masks");
+                }
+                if (bpp == Bpp.HIGH_COLOR) {
+                    table = new int[1 << 16];
+                    for (int value = 0; value < table.length; value++) {
+                        table[value] = masked(value);
+                    }
+                }
+            }
+        }
+
+        private void convert(byte[] bytes, int[] argb) {
+            switch (bpp) {
+                case MONOCHROME:
+                case EGA:
+                case VGA: {
+                    int bits = bpp.getValue();
+                    int perByte = 8 / bits;
+                    int indexMask = (1 << bits) - 1;
+                    for (int x = 0; x < width; x++) {
+                        int shift = 8 - bits * (x % perByte + 1);
+                        argb[x] = color(palette, Byte.toUnsignedInt(bytes[x / perByte]) >>> shift & indexMask);
+                    }
+                    break;
+                }
+                case HIGH_COLOR:
+                    for (int x = 0, i = 0; x < width; x++, i += 2) {
+                        argb[x] = table[Byte.toUnsignedInt(bytes[i]) | Byte.toUnsignedInt(bytes[i + 1]) << 8];
+                    }
+                    break;
+                case TRUE_COLOR:
+                    for (int x = 0, i = 0; x < width; x++, i += 3) {
+                        argb[x] = 0xff000000 | Byte.toUnsignedInt(bytes[i + 2]) << 16
+                                | Byte.toUnsignedInt(bytes[i + 1]) << 8 | Byte.toUnsignedInt(bytes[i]);
+                    }
+                    break;
+                case DEEP_COLOR:
+                    for (int x = 0, i = 0; x < width; x++, i += 4) {
+                        argb[x] = masked(Byte.toUnsignedInt(bytes[i]) | Byte.toUnsignedInt(bytes[i + 1]) << 8
+                                | Byte.toUnsignedInt(bytes[i + 2]) << 16 | Byte.toUnsignedInt(bytes[i + 3]) << 24);
+                    }
+                    break;
+            }
+        }
+
+        private int masked(int pixel) {
+            // pixels without alpha mask are opaque
+            int alpha = masks[3] == 0 ? 0xff : channel(pixel, masks[3]);
+            return alpha << 24 | channel(pixel, masks[0]) << 16 | channel(pixel, masks[1]) << 8
+                    | channel(pixel, masks[2]);
+        }
+
+        /**
+         * @return value of channel scaled to 8 bits
+         */
+        private int channel(int pixel, int mask) {
+            if (mask == 0) {
+                return 0;
+            }
+            int bits = Integer.bitCount(mask);
+            int value = (pixel & mask) >>> Integer.numberOfTrailingZeros(mask);
+            if (bits >= 8) {
+                return value >>> (bits - 8);
+            }
+            return value * 255 / ((1 << bits) - 1);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package by.spalex.bmp.bitmap;
+
+import by.spalex.bmp.bitmap.header.BitmapHeader;
+import by.spalex.bmp.bitmap.header.Compression;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Streaming decoder of BI_RLE8 and BI_RLE4 image data. Runs are expanded row by row into a scanline
+ * holding one palette index per pixel, so memory usage is one scanline whatever the image size is.
+ * Pixels skipped by delta escapes and rows ended early are filled with index 0
+ */
+public final class RleReader {
+
+    private static final int BUFFER_SIZE = 1 << 13;
+
+    private final ReadableByteChannel source;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final boolean rle4;
+    private final int width;
+    private final long height;
+
+    // row which will be returned by the next call of read
+    private long row = 0;
+    // rows to be returned empty before decoding continues, set by delta escape
+    private long skippedRows = 0;
+    // column where decoding of the next row starts, set by delta escape
+    private int startColumn = 0;
+    private boolean endOfBitmap = false;
+
+    /**
+     * Create RleReader instance
+     * @param header bitmap header with BI_RLE8 or BI_RLE4 compression
+     * @param source channel positioned at begin of image data
+     * @throws IllegalArgumentException if compression is not RLE
+     */
+    public RleReader(BitmapHeader header, ReadableByteChannel source) {
+        if (header.getCompression() != Compression.BI_RLE8 && header.getCompression() != Compression.BI_RLE4) {
+            throw new IllegalArgumentException("Compression " + header.getCompression() + " is not RLE");
+        }
+        if (header.getWidth() > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Invalid width " + header.getWidth());
+        }
+        this.source = source;
+        rle4 = header.getCompression() == Compression.BI_RLE4;
+        width = (int) header.getWidth();
+        height = header.getHeight();
+        buffer.flip();
+    }
+
+    /**
+     * @return width of scanline in pixels
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Decodes next row in storage order
+     * @param scanline destination of palette indices, at least {@link #getWidth()} long
+     * @return index of decoded row in storage order, -1 if all rows are decoded
+     * @throws IOException in case of read error or if data ends before end of bitmap
+     */
+    public long read(byte[] scanline) throws IOException {
+        if (row >= height) {
+            return -1;
+        }
+        Arrays.fill(scanline, 0, width, (byte) 0);
+        if (skippedRows > 0 || endOfBitmap) {
+            skippedRows--;
+            return row++;
+        }
+        int column = startColumn;
+        startColumn = 0;
+        while (true) {
+            int count = next();
+            int value = next();
+            if (count > 0) {
+                // encoded mode: run of one index, RLE4 alternates two indices
+                for (int i = 0; i < count; i++, column++) {
+                    put(scanline, column, rle4 ? (i & 1) == 0 ? value >>> 4 : value & 0x0f : value);
+                }
+            } else if (value == 0) {
+                break;
+            } else if (value == 1) {
+                endOfBitmap = true;
+                break;
+            } else if (value == 2) {
+                int dx = next();
+                int dy = next();
+                if (dy == 0) {
+                    column += dx;
+                } else {
+                    skippedRows = dy - 1;
+                    startColumn = column + dx;
+                    break;
+                }
+            } else {
+                // absolute mode: value indices follow, padded to 16-bit boundary
+                int bytes = rle4 ? (value + 1) / 2 : value;
+                for (int i = 0; i < bytes; i++) {
+                    int data = next();
+                    if (rle4) {
+                        put(scanline, column++, data >>> 4);
+                        if (2 * i + 1 < value) {
+                            put(scanline, column++, data & 0x0f);
+                        }
+                    } else {
+                        put(scanline, column++, data);
+                    }
+                }
+                if ((bytes & 1) != 0) {
+                    next();
+                }
+            }
+        }
+        return row++;
+    }
+
+    private void put(byte[] scanline, int column, int index) {
+        // runs exceeding the row are cut
+        if (column < width) {
+            scanline[column] = (byte) index;
+        }
+    }
+
+    private int next() throws IOException {
+        if (!buffer.hasRemaining()) {
+            buffer.clear();
+            int read;
+            do {
+                read = source.read(buffer);
+            } while (read == 0);
+            buffer.flip();
+            if (read < 0) {
+                throw new EOFException("RLE data ends before end of bitmap");
+            }
+        }
+        return Byte.toUnsignedInt(buffer.get());
+    }
+}
@@ -41,6 +41,11 @@ public class BitmapCoreHeader implements BitmapHeader {
         return height;
     }
 
+    @Override
+    public boolean isTopDown() {
+        return false;
+    }
+
     public short getPlanes() {
         return planes;
     }
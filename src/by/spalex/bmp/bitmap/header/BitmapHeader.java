@@ -15,4 +15,9 @@ public interface BitmapHeader {
     long getWidth();
 
     long getHeight();
+
+    /**
+     * @return true if the first row of image data is the top row of image
+     */
+    boolean isTopDown();
 }
@@ -13,6 +13,7 @@ public class BitmapInfoHeader implements BitmapHeader {
     // if height > 0 then bitmap data is upside down (i.e. last scanline first)
     // else height = abs(height) and bitmap data is ordered normally
     private long height;
+    private boolean topDown;
     // 1
     private short planes;
     private Bpp bitsPerPixel;
@@ -37,7 +38,9 @@ public class BitmapInfoHeader implements BitmapHeader {
         }
 
         width = Integer.toUnsignedLong(buffer.getInt(18));
-        height = Integer.toUnsignedLong(buffer.getInt(22));
+        height = buffer.getInt(22);
+        topDown = height < 0;
+        height = Math.abs(height);
         planes = (short) Short.toUnsignedInt(buffer.getShort(26));
         bitsPerPixel = Bpp.parse(Short.toUnsignedInt(buffer.getShort(28)));
         compression = Compression.parse((int) Integer.toUnsignedLong(buffer.getInt(30)));
@@ -56,6 +59,11 @@ public class BitmapInfoHeader implements BitmapHeader {
         return height;
     }
 
+    @Override
+    public boolean isTopDown() {
+        return topDown;
+    }
+
     public short getPlanes() {
         return planes;
     }
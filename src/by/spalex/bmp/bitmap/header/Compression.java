@@ -28,4 +28,8 @@ public enum Compression {
         }
         throw new IllegalArgumentException("Unsupported compression " + value);
     }
+
+    public int getValue() {
+        return value;
+    }
 }
@@ -20,16 +20,36 @@ public class Header {
      * @throws IllegalArgumentException in case of absent magic bytes, invalid size or invalid offset of image data
      */
     public Header(byte[] bytes) {
-        if (bytes.length < 15) throw new IllegalArgumentException("Invalid header size " + bytes.length);
-        if (magic[0] != bytes[0] || magic[1] != bytes[1]) {
-            throw new IllegalArgumentException("Invalid header " + (char) bytes[0] + (char) bytes[1]);
+        this(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Constructs bitmap's header without copying file content
+     * @param buffer bitmap file as ByteBuffer, file begins at index 0 and ends at limit
+     * @throws IllegalArgumentException in case of absent magic bytes, invalid size or invalid offset of image data
+     */
+    public Header(ByteBuffer buffer) {
+        this(buffer, buffer.limit());
+    }
+
+    /**
+     * Constructs bitmap's header from begin of file
+     * @param buffer begin of bitmap file as ByteBuffer, at least 14 bytes
+     * @param length length of whole file
+     * @throws IllegalArgumentException in case of absent magic bytes, invalid size or invalid offset of image data
+     */
+    public Header(ByteBuffer buffer, long length) {
+        if (length < 15 || buffer.limit() < 14) throw new IllegalArgumentException("Invalid header size " + length);
+        if (magic[0] != buffer.get(0) || magic[1] != buffer.get(1)) {
+            throw new IllegalArgumentException("Invalid header " + (char) buffer.get(0) + (char) buffer.get(1));
         }
-        long size = Integer.toUnsignedLong(ByteBuffer.wrap(bytes, 2, 4).order(ByteOrder.LITTLE_ENDIAN).getInt());
-        if (size != bytes.length) {
+        ByteBuffer view = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        long size = Integer.toUnsignedLong(view.getInt(2));
+        long offset = Integer.toUnsignedLong(view.getInt(10));
+        if (size != length) {
             throw new IllegalArgumentException("Invalid size " + size);
         }
-        long offset = Integer.toUnsignedLong(ByteBuffer.wrap(bytes, 10, 4).order(ByteOrder.LITTLE_ENDIAN).getInt());
-        if (offset + 14 > bytes.length) {
+        if (offset + 14 > length) {
             throw new IllegalArgumentException("Invalid offset " + offset);
         }
 
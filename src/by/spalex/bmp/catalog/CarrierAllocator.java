@@ -0,0 +1,165 @@
+package by.spalex.bmp.catalog;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.ToLongFunction;
+
+/**
+ * Lock-free best-fit allocator of carriers. Carriers are sorted by capacity once, claimed ones are marked
+ * by bits of atomic words: allocation finds the first carrier which fits by binary search and claims
+ * the first free carrier from it by compare-and-set. Threads claiming carriers of different sizes touch
+ * different words, every carrier is handed out to one thread only until it is released
+ * @param <T> type of carrier, carriers must be distinct
+ */
+public final class CarrierAllocator<T> {
+
+    private final List<T> carriers;
+    private final long[] capacities;
+    // bit i of word i / 64 is set while carrier i is claimed, bits past the last carrier are always set
+    private final AtomicLongArray claimed;
+    private final Map<T, Integer> slots = new HashMap<>();
+    private final AtomicInteger available;
+
+    /**
+     * Create CarrierAllocator instance
+     * @param carriers carriers
+     * @param capacity function returning encode capacity of carrier, it is called once per carrier
+     */
+    public CarrierAllocator(Collection<? extends T> carriers, ToLongFunction<? super T> capacity) {
+        List<Slot<T>> sorted = new ArrayList<>(carriers.size());
+        for (T carrier : carriers) {
+            sorted.add(new Slot<>(carrier, capacity.applyAsLong(carrier)));
+        }
+        sorted.sort(Comparator.comparingLong(slot -> slot.capacity));
+        this.carriers = new ArrayList<>(sorted.size());
+        capacities = new long[sorted.size()];
+        for (int i = 0; i < capacities.length; i++) {
+            this.carriers.add(sorted.get(i).carrier);
+            capacities[i] = sorted.get(i).capacity;
+            slots.put(sorted.get(i).carrier, i);
+        }
+        claimed = new AtomicLongArray((capacities.length + 63) / 64);
+        if (capacities.length % 64 != 0) {
+            claimed.set(claimed.length() - 1, -1L << (capacities.length % 64));
+        }
+        available = new AtomicInteger(capacities.length);
+    }
+
+    /**
+     * Create allocator over carriers of catalog which can hold any text
+     * @param catalog catalog of carriers
+     * @return new allocator
+     */
+    public static CarrierAllocator<CarrierEntry> of(CarrierCatalog catalog) {
+        return new CarrierAllocator<>(catalog.findAll(1), CarrierEntry::getCapacity);
+    }
+
+    /**
+     * Claims the smallest free carrier which can hold payload
+     * @param size size of payload
+     * @return claimed carrier, null if no free carrier is large enough
+     */
+    public T allocate(long size) {
+        int first = lowerBound(size);
+        for (int word = first >>> 6; word < claimed.length(); word++) {
+            // carriers before the first one which fits are not candidates
+            long candidates = word == first >>> 6 ? -1L << (first & 63) : -1L;
+            long bits = claimed.get(word);
+            long free;
+            while ((free = ~bits & candidates) != 0) {
+                int bit = Long.numberOfTrailingZeros(free);
+                if (claimed.compareAndSet(word, bits, bits | 1L << bit)) {
+                    available.decrementAndGet();
+                    return carriers.get(word << 6 | bit);
+                }
+                bits = claimed.get(word);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns claimed carrier, so it can be allocated again. Carrier which is filled by payload is not released
+     * @param carrier carrier returned by {@link #allocate(long)}
+     * @return true if carrier was claimed
+     * @throws IllegalArgumentException if carrier doesn't belong to allocator
+     */
+    public boolean release(T carrier) {
+        Integer slot = slots.get(carrier);
+        if (slot == null) {
+            throw new IllegalArgumentException("Unknown carrier " + carrier);
+        }
+        int word = slot >>> 6;
+        long bit = 1L << (slot & 63);
+        while (true) {
+            long bits = claimed.get(word);
+            if ((bits & bit) == 0) {
+                return false;
+            }
+            if (claimed.compareAndSet(word, bits, bits & ~bit)) {
+                available.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @param carrier carrier of allocator
+     * @return capacity of carrier
+     * @throws IllegalArgumentException if carrier doesn't belong to allocator
+     */
+    public long getCapacity(T carrier) {
+        Integer slot = slots.get(carrier);
+        if (slot == null) {
+            throw new IllegalArgumentException("Unknown carrier " + carrier);
+        }
+        return capacities[slot];
+    }
+
+    /**
+     * @return count of carriers which are not claimed
+     */
+    public int getAvailable() {
+        return available.get();
+    }
+
+    /**
+     * @return count of all carriers
+     */
+    public int size() {
+        return capacities.length;
+    }
+
+    /**
+     * @return index of first carrier with capacity not less than size
+     */
+    private int lowerBound(long size) {
+        int low = 0;
+        int high = capacities.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (capacities[middle] < size) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static final class Slot<T> {
+        private final T carrier;
+        private final long capacity;
+
+        private Slot(T carrier, long capacity) {
+            this.carrier = carrier;
+            this.capacity = capacity;
+        }
+    }
+}
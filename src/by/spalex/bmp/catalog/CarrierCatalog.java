@@ -0,0 +1,312 @@
+package by.spalex.bmp.catalog;
+
+import by.spalex.bmp.bitmap.Bitmap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Catalog of carrier bitmaps of directory tree sorted by encode capacity. Carriers are probed by headers only,
+ * see {@link Bitmap#probe(Path)}, and catalog is persisted in binary index file, so carriers are not read again
+ * until they change. Lookup by capacity is a binary search which doesn't touch carriers. Catalog is immutable,
+ * rescan returns new instance
+ */
+public final class CarrierCatalog {
+
+    // "BMCI"
+    private static final int MAGIC = 0x424d4349;
+    // version 2 reserves frame header with magic and CRC, capacities of older indexes are too large
+    private static final int VERSION = 2;
+    private static final String BITMAP_EXTENSION = ".bmp";
+    // count of files checked by one task of scan
+    private static final int BATCH = 256;
+
+    private static final Comparator<CarrierEntry> ORDER =
+            Comparator.comparingLong(CarrierEntry::getCapacity).thenComparing(CarrierEntry::getPath);
+
+    private final Path root;
+    // entries sorted by capacity and path, capacities[i] is capacity of entries[i]
+    private final CarrierEntry[] entries;
+    private final long[] capacities;
+    private final int probedCount;
+
+    private CarrierCatalog(Path root, Collection<CarrierEntry> entries, int probedCount) {
+        this.root = root;
+        this.entries = entries.toArray(new CarrierEntry[0]);
+        Arrays.sort(this.entries, ORDER);
+        capacities = new long[this.entries.length];
+        for (int i = 0; i < capacities.length; i++) {
+            capacities[i] = this.entries[i].getCapacity();
+        }
+        this.probedCount = probedCount;
+    }
+
+    /**
+     * @param root root of carrier tree
+     * @return catalog without carriers
+     */
+    public static CarrierCatalog empty(Path root) {
+        return new CarrierCatalog(root, Collections.emptyList(), 0);
+    }
+
+    /**
+     * Loads catalog from index file written by {@link #save(Path)}. Index of older version is read as empty,
+     * so its carriers are probed again by {@link #rescan(int)}
+     * @param root  root of carrier tree
+     * @param index index file
+     * @return loaded catalog
+     * @throws NoSuchFileException if index file doesn't exist
+     * @throws IOException         in case of read error or if file is not carrier index
+     */
+    public static CarrierCatalog load(Path root, Path index) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(index)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Invalid carrier index " + index);
+            }
+            int version = in.readInt();
+            if (version < VERSION) {
+                return empty(root);
+            }
+            if (version != VERSION) {
+                throw new IOException("Invalid carrier index " + index);
+            }
+            int count = in.readInt();
+            if (count < 0) {
+                throw new IOException("Invalid carrier index " + index);
+            }
+            List<CarrierEntry> entries = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                entries.add(CarrierEntry.read(in));
+            }
+            return new CarrierCatalog(root, entries, 0);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid carrier index " + index, e);
+        }
+    }
+
+    /**
+     * Loads catalog from index file if it exists, rescans carrier tree and saves updated index
+     * @param root    root of carrier tree
+     * @param index   index file
+     * @param threads count of threads probing carriers
+     * @return updated catalog
+     * @throws IOException in case of read or write error
+     */
+    public static CarrierCatalog update(Path root, Path index, int threads) throws IOException {
+        CarrierCatalog catalog = Files.exists(index) ? load(root, index) : empty(root);
+        CarrierCatalog updated = catalog.rescan(threads);
+        updated.save(index);
+        return updated;
+    }
+
+    /**
+     * Saves catalog to index file. Index is written to temporary file which then replaces index file
+     * @param index index file
+     * @throws IOException in case of write error
+     */
+    public void save(Path index) throws IOException {
+        Path absolute = index.toAbsolutePath();
+        Path temp = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(entries.length);
+                for (CarrierEntry entry : entries) {
+                    entry.write(out);
+                }
+            }
+            Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Walks carrier tree and probes bitmaps in parallel. Entries of files with unchanged size and modification
+     * time are reused, entries of removed files are dropped
+     * @param threads count of threads probing carriers
+     * @return updated catalog
+     * @throws IllegalArgumentException if threads is not positive
+     * @throws IOException              in case of tree walk error
+     */
+    public CarrierCatalog rescan(int threads) throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Invalid count of threads " + threads);
+        }
+        Map<String, CarrierEntry> known = new HashMap<>();
+        for (CarrierEntry entry : entries) {
+            known.put(entry.getPath(), entry);
+        }
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(root)) {
+            // attributes are read by workers, walk only matches names
+            files = walk.filter(CarrierCatalog::isBitmapName).collect(Collectors.toList());
+        }
+        AtomicInteger probed = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<List<CarrierEntry>>> batches = new ArrayList<>();
+            for (int from = 0; from < files.size(); from += BATCH) {
+                List<Path> batch = files.subList(from, Math.min(files.size(), from + BATCH));
+                batches.add(pool.submit(() -> check(batch, known, probed)));
+            }
+            List<CarrierEntry> result = new ArrayList<>(files.size());
+            for (Future<List<CarrierEntry>> batch : batches) {
+                result.addAll(batch.get());
+            }
+            return new CarrierCatalog(root, result, probed.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Scan of carriers is interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw (Error) cause;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private List<CarrierEntry> check(List<Path> files, Map<String, CarrierEntry> known, AtomicInteger probed) {
+        List<CarrierEntry> checked = new ArrayList<>(files.size());
+        for (Path file : files) {
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            } catch (IOException e) {
+                // file is removed during scan
+                continue;
+            }
+            if (!attributes.isRegularFile()) {
+                continue;
+            }
+            String key = key(file);
+            long size = attributes.size();
+            long modified = attributes.lastModifiedTime().toMillis();
+            CarrierEntry entry = known.get(key);
+            if (entry == null || !entry.isUpToDate(size, modified)) {
+                probed.incrementAndGet();
+                try {
+                    entry = CarrierEntry.of(key, size, modified, Bitmap.probe(file));
+                } catch (IOException | RuntimeException e) {
+                    // unsupported files are kept in catalog, so they are not probed again until they change
+                    entry = CarrierEntry.unsupported(key, size, modified);
+                }
+            }
+            checked.add(entry);
+        }
+        return checked;
+    }
+
+    /**
+     * Finds the smallest carrier which can hold payload
+     * @param minCapacity size of payload
+     * @return entry with the least capacity not less than minCapacity, null if there is no such carrier
+     */
+    public CarrierEntry find(long minCapacity) {
+        int index = lowerBound(minCapacity);
+        return index < entries.length ? entries[index] : null;
+    }
+
+    /**
+     * @param minCapacity size of payload
+     * @return unmodifiable list of entries which can hold payload in ascending order of capacity
+     */
+    public List<CarrierEntry> findAll(long minCapacity) {
+        List<CarrierEntry> all = Collections.unmodifiableList(Arrays.asList(entries));
+        return all.subList(lowerBound(minCapacity), entries.length);
+    }
+
+    /**
+     * @return index of first entry with capacity not less than minCapacity
+     */
+    private int lowerBound(long minCapacity) {
+        int low = 0;
+        int high = capacities.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (capacities[middle] < minCapacity) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return unmodifiable list of all entries in ascending order of capacity
+     */
+    public List<CarrierEntry> getEntries() {
+        return findAll(Long.MIN_VALUE);
+    }
+
+    /**
+     * @return count of entries
+     */
+    public int size() {
+        return entries.length;
+    }
+
+    /**
+     * @return count of carriers probed by scan which created catalog, the rest are reused from previous one
+     */
+    public int getProbedCount() {
+        return probedCount;
+    }
+
+    /**
+     * @return root of carrier tree
+     */
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * @param entry entry of catalog
+     * @return path of carrier file
+     */
+    public Path resolve(CarrierEntry entry) {
+        return root.resolve(entry.getPath().replace('/', File.separatorChar));
+    }
+
+    private String key(Path file) {
+        return root.relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
+    private static boolean isBitmapName(Path file) {
+        Path name = file.getFileName();
+        return name != null && name.toString().toLowerCase(Locale.ROOT).endsWith(BITMAP_EXTENSION);
+    }
+}
@@ -0,0 +1,153 @@
+package by.spalex.bmp.catalog;
+
+import by.spalex.bmp.bitmap.Bitmap;
+import by.spalex.bmp.bitmap.header.BitmapHeader;
+import by.spalex.bmp.bitmap.header.Bpp;
+import by.spalex.bmp.bitmap.header.Compression;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Format and encode capacity of one carrier bitmap of {@link CarrierCatalog}. Entry is identified by path
+ * relative to root of catalog, size and modification time tell whether file is changed since it was probed.
+ * Files which are not supported bitmaps have capacity 0 and no format
+ */
+public final class CarrierEntry {
+
+    private final String path;
+    private final long size;
+    private final long modified;
+    private final Bpp bpp;
+    private final Compression compression;
+    private final long width;
+    private final long height;
+    private final long capacity;
+
+    private CarrierEntry(String path, long size, long modified, Bpp bpp, Compression compression,
+                         long width, long height, long capacity) {
+        this.path = path;
+        this.size = size;
+        this.modified = modified;
+        this.bpp = bpp;
+        this.compression = compression;
+        this.width = width;
+        this.height = height;
+        this.capacity = capacity;
+    }
+
+    /**
+     * @param path     path relative to root of catalog
+     * @param size     size of file
+     * @param modified modification time of file in milliseconds
+     * @param bitmap   bitmap read by {@link Bitmap#probe(java.nio.file.Path)}
+     * @return entry of supported bitmap
+     */
+    static CarrierEntry of(String path, long size, long modified, Bitmap bitmap) {
+        BitmapHeader header = bitmap.getBitmapHeader();
+        return new CarrierEntry(path, size, modified, header.getBitsPerPixel(), header.getCompression(),
+                header.getWidth(), header.getHeight(), bitmap.getEncodeCapacity());
+    }
+
+    /**
+     * @param path     path relative to root of catalog
+     * @param size     size of file
+     * @param modified modification time of file in milliseconds
+     * @return entry of file which is not supported bitmap
+     */
+    static CarrierEntry unsupported(String path, long size, long modified) {
+        return new CarrierEntry(path, size, modified, null, null, 0, 0, 0);
+    }
+
+    /**
+     * Reads entry written by {@link #write(DataOutput)}
+     */
+    static CarrierEntry read(DataInput in) throws IOException {
+        String path = in.readUTF();
+        long size = in.readLong();
+        long modified = in.readLong();
+        int bpp = in.readUnsignedByte();
+        int compression = in.readByte();
+        long width = in.readLong();
+        long height = in.readLong();
+        long capacity = in.readLong();
+        return new CarrierEntry(path, size, modified, bpp == 0 ? null : Bpp.parse(bpp),
+                compression < 0 ? null : Compression.parse(compression), width, height, capacity);
+    }
+
+    /**
+     * Writes entry in compact binary form: path, size, modification time, bits per pixel (0 for unsupported
+     * files), compression (-1 for none), width, height and capacity
+     */
+    void write(DataOutput out) throws IOException {
+        out.writeUTF(path);
+        out.writeLong(size);
+        out.writeLong(modified);
+        out.writeByte(bpp == null ? 0 : bpp.getValue());
+        out.writeByte(compression == null ? -1 : compression.getValue());
+        out.writeLong(width);
+        out.writeLong(height);
+        out.writeLong(capacity);
+    }
+
+    /**
+     * @return true if file of entry has the same size and modification time
+     */
+    boolean isUpToDate(long size, long modified) {
+        return this.size == size && this.modified == modified;
+    }
+
+    /**
+     * @return path relative to root of catalog with '/' separators
+     */
+    public String getPath() {
+        return path;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return modification time of file in milliseconds
+     */
+    public long getModified() {
+        return modified;
+    }
+
+    /**
+     * @return bits per pixel, null if file is not supported bitmap
+     */
+    public Bpp getBpp() {
+        return bpp;
+    }
+
+    /**
+     * @return compression, null for core headers and unsupported files
+     */
+    public Compression getCompression() {
+        return compression;
+    }
+
+    public long getWidth() {
+        return width;
+    }
+
+    public long getHeight() {
+        return height;
+    }
+
+    /**
+     * @return count of bytes which can be encoded into carrier
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public String toString() {
+        return path + " " + (bpp == null ? "unsupported" : width + "x" + height + " " + bpp.getValue() + " bpp")
+                + " capacity " + capacity;
+    }
+}
@@ -0,0 +1,214 @@
+package by.spalex.bmp.cli;
+
+import by.spalex.bmp.catalog.CarrierAllocator;
+import by.spalex.bmp.catalog.CarrierCatalog;
+import by.spalex.bmp.catalog.CarrierEntry;
+import by.spalex.bmp.coder.StreamDecoder;
+import by.spalex.bmp.coder.StreamEncoder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Encodes or decodes every bitmap file of directory tree by bounded pool of workers.
+ * Target tree mirrors source tree. Result of every file and total throughput are printed to output stream
+ */
+class Batch {
+
+    private static final String BITMAP_EXTENSION = ".bmp";
+    private static final String TEXT_EXTENSION = ".txt";
+
+    private final Path source;
+    private final Path target;
+    private final int threads;
+    private final PrintStream out;
+
+    private final AtomicInteger done = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+
+    /**
+     * Create Batch instance
+     * @param source  root of source tree
+     * @param target  root of target tree
+     * @param threads count of workers
+     * @param out     stream for results
+     */
+    Batch(Path source, Path target, int threads, PrintStream out) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Invalid count of threads " + threads);
+        }
+        this.source = source;
+        this.target = target;
+        this.threads = threads;
+        this.out = out;
+    }
+
+    /**
+     * Encodes text into every bitmap of source tree. Encoded bitmaps are written with the same relative paths
+     * @param text text data
+     * @return true if all files are encoded
+     * @throws IOException in case of source tree walk error
+     */
+    boolean encode(byte[] text) throws IOException {
+        StreamEncoder encoder = new StreamEncoder();
+        return run(Batch::isBitmap, file -> {
+            Path encoded = target.resolve(source.relativize(file).toString());
+            try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ);
+                 FileChannel result = create(encoded)) {
+                ReadableByteChannel textChannel = Channels.newChannel(new ByteArrayInputStream(text));
+                encoder.encode(in, textChannel, text.length, result);
+                return in.size();
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(encoded);
+                throw e;
+            }
+        });
+    }
+
+    /**
+     * Decodes text from every bitmap of source tree. Texts are written with relative paths of bitmaps
+     * and {@code .txt} extension, bitmaps holding no text are reported as failed
+     * @return true if all files are decoded
+     * @throws IOException in case of source tree walk error
+     */
+    boolean decode() throws IOException {
+        StreamDecoder decoder = new StreamDecoder();
+        return run(Batch::isBitmap, file -> {
+            Path decoded = target.resolve(source.relativize(file).toString() + TEXT_EXTENSION);
+            long size;
+            try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ);
+                 FileChannel result = create(decoded)) {
+                size = decoder.decode(in, result);
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(decoded);
+                throw e;
+            }
+            if (size == 0) {
+                Files.deleteIfExists(decoded);
+                throw new IllegalStateException("Bitmap holds no text");
+            }
+            return Files.size(file);
+        });
+    }
+
+    /**
+     * Encodes every file of source tree into the smallest free carrier which can hold it, so carriers are packed
+     * tightly whatever order workers take files in. Every carrier is used once. Encoded bitmaps are written
+     * with relative paths of text files and {@code .bmp} extension
+     * @param catalog catalog of carriers
+     * @return true if all files are encoded
+     * @throws IOException in case of source tree walk error
+     */
+    boolean pack(CarrierCatalog catalog) throws IOException {
+        CarrierAllocator<CarrierEntry> carriers = CarrierAllocator.of(catalog);
+        StreamEncoder encoder = new StreamEncoder();
+        return run(Files::isRegularFile, file -> {
+            Path encoded = target.resolve(source.relativize(file).toString() + BITMAP_EXTENSION);
+            long size = Files.size(file);
+            CarrierEntry carrier = carriers.allocate(size);
+            if (carrier == null) {
+                throw new IllegalStateException("No free carrier for " + size + " bytes");
+            }
+            try (FileChannel in = FileChannel.open(catalog.resolve(carrier), StandardOpenOption.READ);
+                 FileChannel text = FileChannel.open(file, StandardOpenOption.READ);
+                 FileChannel result = create(encoded)) {
+                encoder.encode(in, text, size, result);
+                return size;
+            } catch (IOException | RuntimeException e) {
+                carriers.release(carrier);
+                Files.deleteIfExists(encoded);
+                throw e;
+            }
+        });
+    }
+
+    /**
+     * Action performed for one file
+     */
+    private interface FileAction {
+        /**
+         * @param file source file
+         * @return size of source file
+         */
+        long apply(Path file) throws IOException;
+    }
+
+    private boolean run(Predicate<Path> filter, FileAction action) throws IOException {
+        // queue is bounded, so walking a large tree doesn't hold all its paths in memory
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * 2), new ThreadPoolExecutor.CallerRunsPolicy());
+        long start = System.nanoTime();
+        try (Stream<Path> files = Files.walk(source)) {
+            // target tree may lie inside source tree, its files are never processed again
+            Iterator<Path> iterator = files.filter(file -> !file.startsWith(target) && filter.test(file)).iterator();
+            while (iterator.hasNext()) {
+                Path file = iterator.next();
+                pool.execute(() -> process(file, action));
+            }
+        } finally {
+            pool.shutdown();
+            awaitTermination(pool);
+        }
+        double seconds = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+        out.println(String.format(Locale.ROOT, "%d files, %d failed, %.2f s, %.1f files/s, %.1f MB/s",
+                done.get(), failed.get(), seconds, done.get() / seconds, bytes.get() / seconds / (1 << 20)));
+        return failed.get() == 0;
+    }
+
+    private void process(Path file, FileAction action) {
+        long start = System.nanoTime();
+        try {
+            long size = action.apply(file);
+            bytes.addAndGet(size);
+            done.incrementAndGet();
+            out.println(String.format(Locale.ROOT, "OK %s %d bytes %.1f ms", file, size,
+                    (System.nanoTime() - start) / 1e6));
+        } catch (IOException | RuntimeException e) {
+            done.incrementAndGet();
+            failed.incrementAndGet();
+            out.println("FAILED " + file + ": " + e.getMessage());
+        }
+    }
+
+    private static FileChannel create(Path file) throws IOException {
+        Path parent = file.getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+    }
+
+    private static boolean isBitmap(Path file) {
+        return Files.isRegularFile(file)
+                && file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(BITMAP_EXTENSION);
+    }
+
+    private static void awaitTermination(ThreadPoolExecutor pool) {
+        try {
+            while (!pool.awaitTermination(1, TimeUnit.MINUTES)) {
+                // wait for running files
+            }
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package by.spalex.bmp.cli;
+
+import by.spalex.bmp.bitmap.Bitmap;
+import by.spalex.bmp.bitmap.BitmapData;
+import by.spalex.bmp.catalog.CarrierCatalog;
+import by.spalex.bmp.catalog.CarrierEntry;
+import by.spalex.bmp.diff.DiffEngine;
+import by.spalex.bmp.diff.DiffIndex;
+import by.spalex.bmp.shard.ShardDecoder;
+import by.spalex.bmp.shard.ShardEncoder;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Headless entry point encoding or decoding directory trees and comparing files. It doesn't load JavaFX,
+ * so it runs on servers without display: {@code java -cp BMPCoder.jar by.spalex.bmp.cli.Main encode|decode|diff|shard|join|catalog|pack ...}
+ */
+public class Main {
+
+    private static final String USAGE = "Usage:\n"
+            + "  encode [-threads N] <source dir> <text file> <target dir>  encode text into every bitmap\n"
+            + "  decode [-threads N] <source dir> <target dir>              decode text of every bitmap to .txt file\n"
+            + "  diff <original bitmap> <compared file>                     report differing bytes, exit code 1 if any\n"
+            + "  shard [-threads N] <text file> <target dir> <carrier>...   split text over carriers\n"
+            + "  join [-threads N] <target file> <shard>...                 join text of shards given in any order\n"
+            + "  catalog [-threads N] <carrier dir> <index file> [size]     update index of carriers, print the smallest\n"
+            + "                                                             carrier for text of size, exit code 1 if none\n"
+            + "  pack [-threads N] <carrier dir> <index file> <source dir> <target dir>\n"
+            + "                                                             encode every file into the smallest free carrier";
+
+    public static void main(String[] args) {
+        try {
+            System.exit(run(args) ? 0 : 1);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static boolean run(String[] args) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int first = 1;
+        if (args.length > 2 && "-threads".equals(args[1])) {
+            try {
+                threads = Integer.parseInt(args[2]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid count of threads " + args[2]);
+            }
+            first = 3;
+        }
+        String command = args.length > 0 ? args[0] : "";
+        int operands = args.length - first;
+        switch (command) {
+            case "encode":
+                if (operands != 3) {
+                    break;
+                }
+                byte[] text = Files.readAllBytes(Paths.get(args[first + 1]));
+                return batch(args[first], args[first + 2], threads).encode(text);
+            case "decode":
+                if (operands != 2) {
+                    break;
+                }
+                return batch(args[first], args[first + 1], threads).decode();
+            case "diff":
+                if (operands != 2) {
+                    break;
+                }
+                return diff(Paths.get(args[first]), Paths.get(args[first + 1]));
+            case "shard":
+                if (operands < 3) {
+                    break;
+                }
+                return shard(args, first, threads);
+            case "join":
+                if (operands < 2) {
+                    break;
+                }
+                return join(args, first, threads);
+            case "catalog":
+                if (operands != 2 && operands != 3) {
+                    break;
+                }
+                return catalog(args, first, threads);
+            case "pack":
+                if (operands != 4) {
+                    break;
+                }
+                return batch(args[first + 2], args[first + 3], threads)
+                        .pack(CarrierCatalog.update(carrierDir(args[first]), Paths.get(args[first + 1]), threads));
+        }
+        throw new IllegalArgumentException("Invalid arguments");
+    }
+
+    private static boolean diff(Path original, Path compared) throws IOException {
+        BitmapData comparedData;
+        try (FileChannel channel = FileChannel.open(compared, StandardOpenOption.READ)) {
+            comparedData = BitmapData.map(channel);
+        }
+        DiffIndex index = new DiffEngine().compare(Bitmap.open(original), comparedData);
+        index.writeReport(new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8)));
+        return index.isEmpty();
+    }
+
+    private static boolean shard(String[] args, int first, int threads) throws IOException {
+        byte[] text = Files.readAllBytes(Paths.get(args[first]));
+        Path targetDir = Paths.get(args[first + 1]);
+        Files.createDirectories(targetDir);
+        List<Path> carriers = new ArrayList<>();
+        List<Path> targets = new ArrayList<>();
+        for (int i = first + 2; i < args.length; i++) {
+            Path carrier = Paths.get(args[i]);
+            carriers.add(carrier);
+            targets.add(targetDir.resolve(carrier.getFileName()));
+        }
+        int shards = new ShardEncoder(threads).encode(carriers, text, targets);
+        System.out.println(text.length + " bytes written to " + shards + " shards");
+        return true;
+    }
+
+    private static boolean join(String[] args, int first, int threads) throws IOException {
+        List<Path> shards = new ArrayList<>();
+        for (int i = first + 1; i < args.length; i++) {
+            shards.add(Paths.get(args[i]));
+        }
+        byte[] text = ShardDecoder.decode(shards, threads);
+        Files.write(Paths.get(args[first]), text);
+        System.out.println(text.length + " bytes joined from " + shards.size() + " shards");
+        return true;
+    }
+
+    private static boolean catalog(String[] args, int first, int threads) throws IOException {
+        Path root = carrierDir(args[first]);
+        long size = -1;
+        if (args.length > first + 2) {
+            try {
+                size = Long.parseLong(args[first + 2]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid size " + args[first + 2]);
+            }
+        }
+        CarrierCatalog catalog = CarrierCatalog.update(root, Paths.get(args[first + 1]), threads);
+        System.out.println(catalog.size() + " carriers, " + catalog.getProbedCount() + " probed");
+        if (size < 0) {
+            return true;
+        }
+        // unsupported files and carriers too small for frame header have no capacity, they never hold text
+        CarrierEntry entry = catalog.find(Math.max(1, size));
+        if (entry != null) {
+            System.out.println(catalog.resolve(entry));
+        }
+        return entry != null;
+    }
+
+    private static Path carrierDir(String path) {
+        Path root = Paths.get(path).toAbsolutePath().normalize();
+        if (!Files.isDirectory(root)) {
+            throw new IllegalArgumentException("Carrier directory " + path + " doesn't exist");
+        }
+        return root;
+    }
+
+    private static Batch batch(String source, String target, int threads) {
+        Path sourceDir = Paths.get(source).toAbsolutePath().normalize();
+        if (!Files.isDirectory(sourceDir)) {
+            throw new IllegalArgumentException("Source directory " + source + " doesn't exist");
+        }
+        return new Batch(sourceDir, Paths.get(target).toAbsolutePath().normalize(), threads, System.out);
+    }
+}
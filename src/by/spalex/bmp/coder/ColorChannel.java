@@ -0,0 +1,15 @@
+package by.spalex.bmp.coder;
+
+/**
+ * Color channels of pixel which can hold encoded text, see {@link Encoder#setLayout(int, java.util.Set)}.
+ * Channels of one pixel are filled in order of declaration
+ */
+public enum ColorChannel {
+    BLUE,
+    GREEN,
+    RED,
+    /**
+     * Alpha channel of bitmaps with alpha mask, unused bits of pixel of others
+     */
+    ALPHA
+}
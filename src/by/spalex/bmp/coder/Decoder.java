@@ -1,17 +1,27 @@
 package by.spalex.bmp.coder;
 
 import by.spalex.bmp.bitmap.Bitmap;
-import by.spalex.bmp.bitmap.header.Bpp;
-import by.spalex.bmp.bitmap.header.Compression;
+import by.spalex.bmp.bitmap.BitmapData;
+import by.spalex.bmp.bitmap.PixelCursor;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
 
 /**
  * Class performs decoding of encoded text from bitmap file
  */
 public class Decoder {
 
+    // count of encoded bytes extracted from one view of file
+    private static final int BLOCK = 4096;
+
     private final Bitmap bitmap;
+    private Progress progress = Progress.NONE;
 
     /**
      * Create Decoder instance
@@ -22,194 +32,307 @@ public class Decoder {
     }
 
     /**
-     * Decode text from bitmap
+     * Sets listener of decoding progress. Progress is counted in bytes of text,
+     * decoding is stopped by {@link java.util.concurrent.CancellationException} when listener cancels it
+     * @param progress listener, null for none
+     */
+    public void setProgress(Progress progress) {
+        this.progress = progress == null ? Progress.NONE : progress;
+    }
+
+    /**
+     * Decode text from bitmap using platform default charset
      * @return encoded text
-     * @throws IllegalArgumentException if bitmap Bpp is not supported. Supported Bpp is: Monochrome; EGA; VGA;
+     * @throws IllegalStateException if bitmap Bpp is not supported. Supported Bpp is: Monochrome; EGA; VGA;
      * HIGH COLOR with BI_RGB, BI_BITFIELDS or  BI_ALPHABITFIELDS compressions; TRUE COLOR or DEEP COLOR
+     * @deprecated text written on other platform may be decoded wrong, use {@link #decode(Charset)}
      */
+    @Deprecated
     public String decode() {
-        Bpp bpp = bitmap.getBitmapHeader().getBitsPerPixel();
-        Compression compression = bitmap.getBitmapHeader().getCompression();
-        switch (bpp) {
-            case MONOCHROME:
-            case EGA:
-            case VGA:
-                return decodeColorPallete();
-            case HIGH_COLOR:
-                switch (compression) {
-                    case BI_RGB:
-                        return decodeRGB555();
-                    case BI_BITFIELDS:
-                    case BI_ALPHABITFIELDS:
-                        return decodeRGB444();
-                }
-                break;
-            case TRUE_COLOR:
-                return decodeTrueColor();
-            case DEEP_COLOR:
-                return decodeRGB888();
-        }
-        throw new IllegalStateException("Unsupported bitmap format");
+        return decode(Charset.defaultCharset());
+    }
+
+    /**
+     * Decode text from bitmap. Malformed bytes are replaced, so binary payload should be decoded by
+     * {@link #decodeBytes()} or {@link #decodeTo(WritableByteChannel)}
+     * @param charset charset of encoded text bytes
+     * @return encoded text, empty string if bitmap holds no text
+     * @throws IllegalStateException if bitmap Bpp is not supported
+     */
+    public String decode(Charset charset) {
+        return new String(decodeBytes(), charset);
     }
 
     /**
-     * Decode text from true color bitmap with R8 G8 B8 pattern
-     * @return decoded text
+     * Decode payload from bitmap straight into channel. Payload is extracted and written by blocks of 4096 bytes,
+     * so it is never held whole, compressed payload is inflated block by block
+     * @param target channel for payload
+     * @return count of written bytes, 0 if bitmap holds no payload
+     * @throws IOException           in case of write error
+     * @throws ZipException          if compressed payload is corrupted, part of it may be already written
+     * @throws IllegalStateException if bitmap Bpp is not supported
      */
-    private String decodeTrueColor() {
-        byte[] bitmapBytes = bitmap.getBytes();
-        int offset = (int) bitmap.getHeader().getOffset();
-        byte[] sizeBytes = new byte[4];
-        // first 4 byte -  size of encoded bytes array
-        for (int i = 0; i < 4; i++) {
-            sizeBytes[i] = getTrueColorByte(bitmapBytes, offset);
-            offset += 12;
+    public long decodeTo(WritableByteChannel target) throws IOException {
+        Payload payload = readPayload(true);
+        if (payload == null) return 0;
+        if (payload.compressed) {
+            return inflateTo(payload, target);
         }
-        int size = ByteBuffer.wrap(sizeBytes).getInt();
-        if (size > bitmap.getHeader().getSize() - 14 || size <= 0) return "";
-        byte[] bytes = new byte[size];
-        for (int i = 0; i < size; i++) {
-            bytes[i] = getTrueColorByte(bitmapBytes, offset);
-            offset += 12;
+        long size = payload.size;
+        byte[] block = new byte[(int) Math.min(BLOCK, size)];
+        ProgressCounter counter = new ProgressCounter(progress, size);
+        for (long from = 0; from < size; ) {
+            int count = (int) Math.min(block.length, size - from);
+            payload.extract(from, block, 0, count, counter);
+            write(target, block, count);
+            from += count;
         }
-        return new String(bytes);
+        return size;
     }
 
     /**
-     * retrieve byte by picking 2 bit from every 3 bytes
-     * @param bitmapByte file as byte array
-     * @param offset encoded byte offset
-     * @return encoded byte
+     * Decode text bytes from bitmap. Only file bytes holding encoded text are read, compressed text is inflated
+     * @return encoded text bytes, empty array if bitmap holds no text
+     * @throws IllegalStateException if bitmap Bpp is not supported
      */
-    private byte getTrueColorByte(byte[] bitmapByte, int offset) {
-        byte value = 0x0;
-        for (int y = 0; y < 8; y = y + 2) {
-            if ((bitmapByte[offset] & 1) > 0) {
-                value |= (1 << y);
-            }
-            if ((bitmapByte[offset] & 2) > 0) {
-                value |= (1 << (y + 1));
-            }
-            offset = offset + 3;
-        }
-        return value;
+    public byte[] decodeBytes() {
+        return decodeBytes(Integer.MAX_VALUE);
     }
 
     /**
-     * Decode text from bitmap with color palette and RGBQUAD pattern
-     * @return decoded text
+     * Decode text bytes from bitmap by {@link java.util.concurrent.ForkJoinPool} with default threshold
+     * of 65536 encoded bytes per task
+     * @return encoded text bytes, empty array if bitmap holds no text
+     * @throws IllegalStateException if bitmap Bpp is not supported
+     * @see #decodeBytesParallel(int)
      */
-    private String decodeColorPallete() {
-        byte[] bitmapBytes = bitmap.getBytes();
-
-        int offset = bitmap.getPaletteOffset() + 3;
-        int size = Byte.toUnsignedInt(bitmapBytes[offset]);
-        if (size == 0) return "";
-        offset += 4;
-        byte[] bytes = new byte[size];
-        for (int i = 0; i < size; i++) {
-            bytes[i] = bitmapBytes[offset];
-            offset = offset + 4;
-        }
-        return new String(bytes);
+    public byte[] decodeBytesParallel() {
+        return decodeBytesParallel(RangeTask.DEFAULT_THRESHOLD);
     }
 
     /**
-     * Decode text from bitmap with X8 R8 G8 B8 pattern
-     * @return decoded text
+     * Decode text bytes from bitmap by {@link java.util.concurrent.ForkJoinPool}. Encoded bytes are split into
+     * ranges which are extracted independently. Text not longer than threshold is decoded in current thread.
+     * Compressed text is inflated sequentially
+     * @param threshold maximum count of encoded bytes processed by one task
+     * @return encoded text bytes, empty array if bitmap holds no text
+     * @throws IllegalStateException    if bitmap Bpp is not supported
+     * @throws IllegalArgumentException if threshold is not positive
      */
-    private String decodeRGB888() {
-        byte[] bitmapBytes = bitmap.getBytes();
-        int offset = (int) bitmap.getHeader().getOffset();
-        byte[] sizeBytes = new byte[4];
-        // first 4 byte -  size of encoded bytes array
-        for (int i = 0; i < 4; i++) {
-            sizeBytes[i] = bitmapBytes[offset];
-            offset = offset + 4;
-        }
-        int size = ByteBuffer.wrap(sizeBytes).getInt();
-        if (size > bitmap.getHeader().getSize() - 14 || size <= 0) return "";
-        byte[] bytes = new byte[size];
-        for (int i = 0; i < size; i++) {
-            bytes[i] = bitmapBytes[offset];
-            offset = offset + 4;
+    public byte[] decodeBytesParallel(int threshold) {
+        return decodeBytes(RangeTask.checkThreshold(threshold));
+    }
+
+    private byte[] decodeBytes(int threshold) {
+        Payload payload = readPayload(true);
+        if (payload == null) return new byte[0];
+        if (payload.compressed) {
+            return inflate(payload);
         }
-        return new String(bytes);
+        byte[] bytes = new byte[(int) payload.size];
+        ProgressCounter counter = new ProgressCounter(progress, bytes.length);
+        RangeTask.run(bytes.length, threshold, (from, to) -> payload.extract(0, bytes, from, to, counter));
+        return bytes;
     }
 
     /**
-     * Decode text from bitmap with  X1 R5 G5 B5 pattern
-     * @return decoded text
+     * Checks whether bitmap holds text by its frame header only, so bitmap which was never encoded is rejected
+     * after reading a dozen of encoded bytes. Header must have magic and valid CRC32, headers of older versions
+     * without them are not accepted, see {@link #hasPayload(boolean)}. Bitmaps with color palette have one-byte
+     * size only, so they can't be detected this way: they are checked by encode capacity, which most bitmaps
+     * with palette pass, but their capacity is a few hundred bytes at most
+     * @return true if bitmap holds not empty text
+     * @throws IllegalStateException if bitmap Bpp is not supported
      */
-    private String decodeRGB555() {
-        byte[] bitmapBytes = bitmap.getBytes();
-        int offset = (int) bitmap.getHeader().getOffset();
-        byte[] sizeBytes = new byte[4];
-        // first 4 byte -  size of encoded bytes array
-        for (int i = 0; i < 4; i++) {
-            sizeBytes[i] = getRGB555Byte(bitmapBytes, offset);
-            offset += 16;
-        }
-        int size = ByteBuffer.wrap(sizeBytes).getInt();
-        if (size > bitmap.getHeader().getSize() - 14 || size <= 0) return "";
-        byte[] bytes = new byte[size];
-        for (int i = 0; i < size; i++) {
-            bytes[i] = getRGB555Byte(bitmapBytes, offset);
-            offset += 16;
-        }
-        return new String(bytes);
+    public boolean hasPayload() {
+        return hasPayload(false);
     }
 
     /**
-     * retrieves encoded byte from byte array by RGB555 pattern
-     * @param bitmapByte file as byte array
-     * @param offset encoded byte offset
-     * @return encoded byte
+     * Checks whether bitmap holds text by its frame header only, see {@link #hasPayload()}
+     * @param legacy true if headers of older versions are accepted too. They hold only size of text, which
+     *               is checked by encode capacity, so about one of thousands bitmaps which were never encoded
+     *               passes the check
+     * @return true if bitmap holds not empty text
+     * @throws IllegalStateException if bitmap Bpp is not supported
      */
-    private byte getRGB555Byte(byte[] bitmapByte, int offset) {
-        byte value = 0x0;
-        for (int y = 0; y < 8; y++) {
-            if ((bitmapByte[offset] & 1) > 0) {
-                value |= (1 << y);
+    public boolean hasPayload(boolean legacy) {
+        return readPayload(legacy) != null;
+    }
+
+    /**
+     * Reads frame header
+     * @param legacy true if header of older version without magic and CRC is accepted
+     * @return encoded text following frame header, null if bitmap holds no text
+     * @throws IllegalStateException if bitmap Bpp is not supported
+     */
+    private Payload readPayload(boolean legacy) {
+        EncodePattern pattern = EncodePattern.of(bitmap.getBitmapHeader());
+        long samples = pattern.cursor(bitmap).getSampleCount();
+        if (samples == 0) return null;
+        // the longest header is read at once, shorter one is followed by text which is not used
+        byte[] bytes = new byte[(int) Math.min(samples, FrameHeader.MAX_LENGTH)];
+        extract(pattern, 0, bytes, 0, bytes.length, new ProgressCounter(Progress.NONE, 0));
+        FrameHeader header = FrameHeader.read(bitmap, pattern, bytes, bytes.length, legacy);
+        if (header == null || header.getSize() == 0) return null;
+        return new Payload(pattern, header);
+    }
+
+    /**
+     * Inflates compressed text block by block as it is extracted, so compressed text is never held whole
+     * @param payload compressed text including its original length
+     * @return text bytes, empty array if compressed text is corrupted
+     */
+    private byte[] inflate(Payload payload) {
+        long size = payload.size;
+        byte[] lengthBytes = new byte[4];
+        payload.extract(0, lengthBytes, 0, lengthBytes.length, new ProgressCounter(Progress.NONE, 0));
+        int length = ByteBuffer.wrap(lengthBytes).getInt();
+        if (!FrameHeader.isInflatedLength(length, size)) return new byte[0];
+        byte[] bytes = new byte[length];
+        byte[] block = new byte[(int) Math.min(BLOCK, size - 4)];
+        ProgressCounter counter = new ProgressCounter(progress, size - 4);
+        Inflater inflater = new Inflater();
+        try {
+            int done = 0;
+            for (long from = 0; from < size - 4 && !inflater.finished(); ) {
+                int count = (int) Math.min(block.length, size - 4 - from);
+                payload.extract(4 + from, block, 0, count, counter);
+                inflater.setInput(block, 0, count);
+                while (!inflater.finished() && !inflater.needsInput()) {
+                    int inflated = inflater.inflate(bytes, done, bytes.length - done);
+                    if (inflated == 0 && (inflater.needsDictionary() || done == bytes.length)) {
+                        // text is longer than its length or compressed by other tool
+                        return new byte[0];
+                    }
+                    done += inflated;
+                }
+                from += count;
             }
-            offset = offset + 2;
+            return inflater.finished() && done == length ? bytes : new byte[0];
+        } catch (DataFormatException e) {
+            return new byte[0];
+        } finally {
+            inflater.end();
         }
-        return value;
     }
 
     /**
-     * Decode text from bitmap with  X4 R4 G4 B4 pattern
-     * @return decoded text
+     * Inflates compressed payload block by block into channel
+     * @param payload compressed payload including its original length
+     * @param target  channel for payload
+     * @return count of written bytes, 0 if original length is invalid
+     * @throws ZipException if compressed payload is corrupted
      */
-    private String decodeRGB444() {
-        byte[] bitmapBytes = bitmap.getBytes();
-        int offset = (int) bitmap.getHeader().getOffset() + 1;
-        byte[] sizeBytes = new byte[4];
-        // first 4 byte -  size of encoded bytes array
-        for (int i = 0; i < 4; i++) {
-            sizeBytes[i] = getRGB444Byte(bitmapBytes, offset);
-            offset += 4;
+    private long inflateTo(Payload payload, WritableByteChannel target) throws IOException {
+        long size = payload.size;
+        byte[] lengthBytes = new byte[4];
+        payload.extract(0, lengthBytes, 0, lengthBytes.length, new ProgressCounter(Progress.NONE, 0));
+        int length = ByteBuffer.wrap(lengthBytes).getInt();
+        if (!FrameHeader.isInflatedLength(length, size)) return 0;
+        byte[] block = new byte[(int) Math.min(BLOCK, size - 4)];
+        byte[] inflatedBlock = new byte[BLOCK];
+        ProgressCounter counter = new ProgressCounter(progress, size - 4);
+        Inflater inflater = new Inflater();
+        try {
+            long done = 0;
+            for (long from = 0; from < size - 4 && !inflater.finished(); ) {
+                int count = (int) Math.min(block.length, size - 4 - from);
+                payload.extract(4 + from, block, 0, count, counter);
+                inflater.setInput(block, 0, count);
+                while (!inflater.finished() && !inflater.needsInput()) {
+                    int inflated = inflater.inflate(inflatedBlock);
+                    if (inflated == 0 && inflater.needsDictionary() || done + inflated > length) {
+                        throw new ZipException("Compressed text is corrupted");
+                    }
+                    write(target, inflatedBlock, inflated);
+                    done += inflated;
+                }
+                from += count;
+            }
+            if (!inflater.finished() || done != length) {
+                throw new ZipException("Compressed text is corrupted");
+            }
+            return done;
+        } catch (DataFormatException e) {
+            throw new ZipException(e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static void write(WritableByteChannel target, byte[] bytes, int count) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, count);
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
         }
-        int size = ByteBuffer.wrap(sizeBytes).getInt();
-        if (size > bitmap.getHeader().getSize() - 14 || size <= 0) return "";
-        byte[] bytes = new byte[size];
-        for (int i = 0; i < size; i++) {
-            bytes[i] = getRGB444Byte(bitmapBytes, offset);
-            offset += 4;
+    }
+
+    /**
+     * Retrieves sequence of encoded bytes
+     * @param pattern encoding pattern
+     * @param index   index of encoded byte stored in first element of bytes
+     * @param bytes   destination array
+     * @param begin   index of first extracted element of bytes
+     * @param end     index after last extracted element of bytes
+     * @param counter counter of extracted bytes
+     */
+    private void extract(EncodePattern pattern, long index, byte[] bytes, int begin, int end,
+                         ProgressCounter counter) {
+        BitmapData data = bitmap.getData();
+        PixelCursor cursor = pattern.cursor(bitmap).seek(index + begin);
+        int stride = pattern.getStride();
+        for (int from = begin; from < end; ) {
+            // view never crosses row, so padding between rows is not read
+            int count = Math.min(Math.min(BLOCK, end - from), cursor.getRun());
+            long offset = cursor.getOffset() + pattern.getShift();
+            ByteBuffer image = data.view(offset, (count - 1) * stride + pattern.getSpan());
+            pattern.extract(image, 0, bytes, from, count);
+            cursor.advance(count);
+            from += count;
+            counter.add(count);
         }
-        return new String(bytes);
     }
 
     /**
-     * retrieves encoded byte from byte array by RGB444 pattern
-     * @param imageBytes file as byte array
-     * @param offset encoded byte offset
-     * @return encoded byte
+     * Encoded text following frame header
      */
-    private byte getRGB444Byte(byte[] imageBytes, int offset) {
-        byte value = 0x0;
-        value = (byte) (value | ((imageBytes[offset] & 0xf0)));
-        value = (byte) (value | ((imageBytes[offset + 2] & 0xf0)) >> 4);
-        return value;
+    private final class Payload {
+        private final EncodePattern pattern;
+        // count of encoded bytes of frame header
+        private final int start;
+        // null if text follows frame header in samples of pattern
+        private final DepthLayout layout;
+        private final long size;
+        private final boolean compressed;
+
+        private Payload(EncodePattern pattern, FrameHeader header) {
+            this.pattern = pattern;
+            start = header.getLength();
+            layout = header.getLayout();
+            size = header.getSize();
+            compressed = header.isCompressed();
+        }
+
+        /**
+         * Retrieves sequence of encoded bytes of text
+         * @param index   index of encoded byte of text stored in first element of bytes
+         * @param bytes   destination array
+         * @param begin   index of first extracted element of bytes
+         * @param end     index after last extracted element of bytes
+         * @param counter counter of extracted bytes
+         */
+        private void extract(long index, byte[] bytes, int begin, int end, ProgressCounter counter) {
+            if (layout == null) {
+                Decoder.this.extract(pattern, start + index, bytes, begin, end, counter);
+                return;
+            }
+            for (int from = begin; from < end; ) {
+                int count = Math.min(BLOCK, end - from);
+                layout.extract(bitmap.getData(), bytes, from, from + count, index + from);
+                from += count;
+                counter.add(count);
+            }
+        }
     }
 }
@@ -0,0 +1,421 @@
+package by.spalex.bmp.coder;
+
+import by.spalex.bmp.bitmap.Bitmap;
+import by.spalex.bmp.bitmap.BitmapData;
+import by.spalex.bmp.bitmap.PixelCursor;
+import by.spalex.bmp.bitmap.header.BitmapHeader;
+
+import java.nio.ByteBuffer;
+import java.util.Set;
+
+/**
+ * Placement of encoded bytes in {@code depth} low bits of chosen color channels of pixels. Encoded byte takes
+ * {@code ceil(8 / depth)} slots, slots follow in order of pixels and then channels of pixel. Pixels are grouped
+ * in periods holding whole count of encoded bytes, periods are samples of {@link PixelCursor}, so rows are walked
+ * like by {@link EncodePattern}. {@link FrameHeader} with layout byte is stored by {@link EncodePattern}
+ * of bitmap format, periods of text start after it.
+ * Every slot is moved as little-endian 16-bit word lying inside its pixel, so there is one kernel per depth
+ * without branches whatever the size of pixel and position of channel are
+ */
+final class DepthLayout {
+
+    static final int MAX_DEPTH = 4;
+
+    // masks of red, green, blue and alpha channels of TRUE COLOR pixel
+    private static final int[] TRUE_COLOR_MASKS = {0xff0000, 0x00ff00, 0x0000ff, 0};
+    // count of encoded bytes extracted from one view of file
+    private static final int BLOCK = 4096;
+
+    private final Bitmap bitmap;
+    private final int depth;
+    // bit N is set if channel with ordinal N holds text
+    private final int channelMask;
+    private final int slotsPerByte;
+    private final int pixelsPerPeriod;
+    private final int bytesPerPeriod;
+    private final int periodSize;
+    // offset of 16-bit word of slot from first byte of period and position of slot bits in word
+    private final int[] slotOffsets;
+    private final int[] slotShifts;
+    // used for offsets only, so it is shared by threads
+    private final PixelCursor periods;
+    // the first period lying after frame header
+    private final long firstPeriod;
+
+    private DepthLayout(Bitmap bitmap, int depth, int channelMask) {
+        BitmapHeader header = bitmap.getBitmapHeader();
+        int[] masks;
+        switch (header.getBitsPerPixel()) {
+            case HIGH_COLOR:
+            case DEEP_COLOR:
+                masks = bitmap.getBitmask();
+                break;
+            case TRUE_COLOR:
+                masks = TRUE_COLOR_MASKS;
+                break;
+            default:
+                throw new IllegalArgumentException("Bitmap of " + header.getBitsPerPixel().getValue()
+                        + " bits has no color channels");
+        }
+        if (masks == null) {
+            throw new IllegalArgumentException("Bitmap has no color masks");
+        }
+        this.bitmap = bitmap;
+        this.depth = depth;
+        this.channelMask = channelMask;
+        int pixelBytes = header.getBitsPerPixel().getValue() / 8;
+        int pixelMask = (int) ((1L << 8 * pixelBytes) - 1);
+        // channels are declared in order blue, green, red, alpha; pixel without alpha mask keeps alpha in unused bits
+        int[] fields = {masks[2], masks[1], masks[0],
+                masks[3] != 0 ? masks[3] : pixelMask & ~(masks[0] | masks[1] | masks[2])};
+        int channels = Integer.bitCount(channelMask);
+        int[] channelOffsets = new int[channels];
+        int[] channelShifts = new int[channels];
+        for (ColorChannel channel : ColorChannel.values()) {
+            if ((channelMask & 1 << channel.ordinal()) == 0) {
+                continue;
+            }
+            int field = fields[channel.ordinal()] & pixelMask;
+            int shift = Integer.numberOfTrailingZeros(field);
+            if (field == 0 || Integer.numberOfTrailingZeros(~(field >>> shift)) < depth) {
+                throw new IllegalArgumentException("ColorChannel " + channel + " has less than " + depth + " bits");
+            }
+            // word must not cross the end of pixel, channel in the last byte is the high byte of word
+            int wordOffset = Math.min(shift / 8, pixelBytes - 2);
+            int index = Integer.bitCount(channelMask & (1 << channel.ordinal()) - 1);
+            channelOffsets[index] = wordOffset;
+            channelShifts[index] = shift - 8 * wordOffset;
+        }
+        slotsPerByte = (8 + depth - 1) / depth;
+        int slots = slotsPerByte * channels / gcd(slotsPerByte, channels);
+        pixelsPerPeriod = slots / channels;
+        bytesPerPeriod = slots / slotsPerByte;
+        periodSize = pixelsPerPeriod * pixelBytes;
+        slotOffsets = new int[slots];
+        slotShifts = new int[slots];
+        for (int slot = 0; slot < slots; slot++) {
+            slotOffsets[slot] = slot / channels * pixelBytes + channelOffsets[slot % channels];
+            slotShifts[slot] = channelShifts[slot % channels];
+        }
+
+        EncodePattern pattern = EncodePattern.of(header);
+        PixelCursor frame = pattern.cursor(bitmap);
+        if (frame.getSampleCount() < FrameHeader.MAX_LENGTH) {
+            throw new IllegalArgumentException("Bitmap is too small for frame header");
+        }
+        long frameEnd = frame.offsetOf(FrameHeader.MAX_LENGTH - 1) + pattern.getShift() + pattern.getSpan();
+        periods = bitmap.getPixelCursor(pixelsPerPeriod);
+        firstPeriod = firstPeriodAfter(frameEnd);
+    }
+
+    /**
+     * Create layout for bitmap
+     * @param bitmap   bitmap instance
+     * @param depth    count of low bits of channel holding text, from 1 to {@link #MAX_DEPTH}
+     * @param channels channels holding text
+     * @return new layout
+     * @throws IllegalArgumentException if depth or channels are invalid, bitmap has color palette or is too small,
+     * or some channel has less than depth bits
+     */
+    static DepthLayout of(Bitmap bitmap, int depth, Set<ColorChannel> channels) {
+        if (depth < 1 || depth > MAX_DEPTH) {
+            throw new IllegalArgumentException("Invalid depth " + depth);
+        }
+        if (channels == null || channels.isEmpty()) {
+            throw new IllegalArgumentException("No channels for text");
+        }
+        int channelMask = 0;
+        for (ColorChannel channel : channels) {
+            channelMask |= 1 << channel.ordinal();
+        }
+        return new DepthLayout(bitmap, depth, channelMask);
+    }
+
+    /**
+     * Restores layout written by {@link #toByte()}
+     * @param bitmap bitmap instance
+     * @param value  layout byte
+     * @return layout, null if layout byte is invalid for bitmap
+     */
+    static DepthLayout read(Bitmap bitmap, byte value) {
+        int channelMask = (value & 0xf0) >>> 4;
+        if ((value & 0x0c) != 0 || channelMask == 0) {
+            return null;
+        }
+        try {
+            return new DepthLayout(bitmap, (value & 3) + 1, channelMask);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return layout byte: depth - 1 in bits 0-1 and mask of channel ordinals in bits 4-7
+     */
+    byte toByte() {
+        return (byte) (channelMask << 4 | depth - 1);
+    }
+
+    /**
+     * @return count of encoded bytes which fit after frame header
+     */
+    long getCapacity() {
+        return (periods.getSampleCount() - firstPeriod) * bytesPerPeriod;
+    }
+
+    /**
+     * @return count of encoded bytes stored by one period
+     */
+    int getBytesPerPeriod() {
+        return bytesPerPeriod;
+    }
+
+    /**
+     * @return count of file bytes of period
+     */
+    int getPeriodSize() {
+        return periodSize;
+    }
+
+    /**
+     * @param index index of encoded byte
+     * @return offset of first file byte of period holding encoded byte from begin of file
+     */
+    long offsetOf(long index) {
+        return periods.offsetOf(firstPeriod + index / bytesPerPeriod);
+    }
+
+    /**
+     * @param index index of encoded byte
+     * @return offset of file byte after period holding encoded byte
+     */
+    long endOf(long index) {
+        return offsetOf(index) + periodSize;
+    }
+
+    /**
+     * Stores sequence of encoded bytes into image
+     * @param image       little-endian buffer with file bytes
+     * @param imageOffset offset of first byte of buffer from begin of file
+     * @param values      encoded bytes
+     * @param from        index of first stored element of values
+     * @param to          index after last stored element of values
+     * @param index       index of encoded byte stored in values[from]
+     */
+    void embed(ByteBuffer image, long imageOffset, byte[] values, int from, int to, long index) {
+        PixelCursor cursor = cursor(index);
+        int first = (int) (index % bytesPerPeriod);
+        while (from < to) {
+            int count = Math.min(bytesPerPeriod - first, to - from);
+            embedPeriod(image, (int) (cursor.getOffset() - imageOffset), values, from, first, count);
+            cursor.advance(1);
+            from += count;
+            first = 0;
+        }
+    }
+
+    /**
+     * Retrieves sequence of encoded bytes from image
+     * @param image       little-endian buffer with file bytes
+     * @param imageOffset offset of first byte of buffer from begin of file
+     * @param values      destination array
+     * @param from        index of first extracted element of values
+     * @param to          index after last extracted element of values
+     * @param index       index of encoded byte stored in values[from]
+     */
+    void extract(ByteBuffer image, long imageOffset, byte[] values, int from, int to, long index) {
+        PixelCursor cursor = cursor(index);
+        int first = (int) (index % bytesPerPeriod);
+        while (from < to) {
+            int count = Math.min(bytesPerPeriod - first, to - from);
+            extractPeriod(image, (int) (cursor.getOffset() - imageOffset), values, from, first, count);
+            cursor.advance(1);
+            from += count;
+            first = 0;
+        }
+    }
+
+    /**
+     * Retrieves sequence of encoded bytes from bitmap file, only periods holding them are read
+     * @param data   file content
+     * @param values destination array
+     * @param from   index of first extracted element of values
+     * @param to     index after last extracted element of values
+     * @param index  index of encoded byte stored in values[from]
+     */
+    void extract(BitmapData data, byte[] values, int from, int to, long index) {
+        PixelCursor cursor = cursor(index);
+        int first = (int) (index % bytesPerPeriod);
+        while (from < to) {
+            // view never crosses row, so padding between rows is not read
+            int count = (int) Math.min(Math.min(cursor.getRun(), Math.max(1, BLOCK / periodSize)),
+                    ((long) first + to - from + bytesPerPeriod - 1) / bytesPerPeriod);
+            ByteBuffer image = data.view(cursor.getOffset(), count * periodSize);
+            for (int period = 0; period < count; period++) {
+                int bytes = Math.min(bytesPerPeriod - first, to - from);
+                extractPeriod(image, period * periodSize, values, from, first, bytes);
+                from += bytes;
+                first = 0;
+            }
+            cursor.advance(count);
+        }
+    }
+
+    private PixelCursor cursor(long index) {
+        return bitmap.getPixelCursor(pixelsPerPeriod).seek(firstPeriod + index / bytesPerPeriod);
+    }
+
+    /**
+     * @return index of the first period starting at offset or after it
+     */
+    private long firstPeriodAfter(long offset) {
+        long low = 0;
+        long high = periods.getSampleCount();
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (periods.offsetOf(middle) < offset) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Stores encoded bytes into one period
+     * @param image  little-endian buffer with file bytes
+     * @param base   index of first byte of period in buffer
+     * @param values encoded bytes
+     * @param from   index of first encoded byte in values
+     * @param first  index of first encoded byte in period
+     * @param count  count of encoded bytes
+     */
+    private void embedPeriod(ByteBuffer image, int base, byte[] values, int from, int first, int count) {
+        int to = from + count;
+        int slot = first * slotsPerByte;
+        switch (depth) {
+            case 1:
+                for (int i = from; i < to; i++, slot += 8) {
+                    embed1(image, base, slot, values[i] & 0xff);
+                }
+                break;
+            case 2:
+                for (int i = from; i < to; i++, slot += 4) {
+                    embed2(image, base, slot, values[i] & 0xff);
+                }
+                break;
+            case 3:
+                for (int i = from; i < to; i++, slot += 3) {
+                    embed3(image, base, slot, values[i] & 0xff);
+                }
+                break;
+            case 4:
+                for (int i = from; i < to; i++, slot += 2) {
+                    embed4(image, base, slot, values[i] & 0xff);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Retrieves encoded bytes from one period
+     * @param image  little-endian buffer with file bytes
+     * @param base   index of first byte of period in buffer
+     * @param values destination array
+     * @param from   index of first encoded byte in values
+     * @param first  index of first encoded byte in period
+     * @param count  count of encoded bytes
+     */
+    private void extractPeriod(ByteBuffer image, int base, byte[] values, int from, int first, int count) {
+        int to = from + count;
+        int slot = first * slotsPerByte;
+        switch (depth) {
+            case 1:
+                for (int i = from; i < to; i++, slot += 8) {
+                    values[i] = extract1(image, base, slot);
+                }
+                break;
+            case 2:
+                for (int i = from; i < to; i++, slot += 4) {
+                    values[i] = extract2(image, base, slot);
+                }
+                break;
+            case 3:
+                for (int i = from; i < to; i++, slot += 3) {
+                    values[i] = extract3(image, base, slot);
+                }
+                break;
+            case 4:
+                for (int i = from; i < to; i++, slot += 2) {
+                    values[i] = extract4(image, base, slot);
+                }
+                break;
+        }
+    }
+
+    private void embed1(ByteBuffer image, int base, int slot, int value) {
+        put(image, base, slot, value, 1);
+        put(image, base, slot + 1, value >>> 1, 1);
+        put(image, base, slot + 2, value >>> 2, 1);
+        put(image, base, slot + 3, value >>> 3, 1);
+        put(image, base, slot + 4, value >>> 4, 1);
+        put(image, base, slot + 5, value >>> 5, 1);
+        put(image, base, slot + 6, value >>> 6, 1);
+        put(image, base, slot + 7, value >>> 7, 1);
+    }
+
+    private void embed2(ByteBuffer image, int base, int slot, int value) {
+        put(image, base, slot, value, 3);
+        put(image, base, slot + 1, value >>> 2, 3);
+        put(image, base, slot + 2, value >>> 4, 3);
+        put(image, base, slot + 3, value >>> 6, 3);
+    }
+
+    private void embed3(ByteBuffer image, int base, int slot, int value) {
+        put(image, base, slot, value, 7);
+        put(image, base, slot + 1, value >>> 3, 7);
+        // the last slot holds 2 bits only, the third bit of channel is kept
+        put(image, base, slot + 2, value >>> 6, 3);
+    }
+
+    private void embed4(ByteBuffer image, int base, int slot, int value) {
+        put(image, base, slot, value, 15);
+        put(image, base, slot + 1, value >>> 4, 15);
+    }
+
+    private byte extract1(ByteBuffer image, int base, int slot) {
+        return (byte) (get(image, base, slot, 1) | get(image, base, slot + 1, 1) << 1
+                | get(image, base, slot + 2, 1) << 2 | get(image, base, slot + 3, 1) << 3
+                | get(image, base, slot + 4, 1) << 4 | get(image, base, slot + 5, 1) << 5
+                | get(image, base, slot + 6, 1) << 6 | get(image, base, slot + 7, 1) << 7);
+    }
+
+    private byte extract2(ByteBuffer image, int base, int slot) {
+        return (byte) (get(image, base, slot, 3) | get(image, base, slot + 1, 3) << 2
+                | get(image, base, slot + 2, 3) << 4 | get(image, base, slot + 3, 3) << 6);
+    }
+
+    private byte extract3(ByteBuffer image, int base, int slot) {
+        return (byte) (get(image, base, slot, 7) | get(image, base, slot + 1, 7) << 3
+                | get(image, base, slot + 2, 3) << 6);
+    }
+
+    private byte extract4(ByteBuffer image, int base, int slot) {
+        return (byte) (get(image, base, slot, 15) | get(image, base, slot + 1, 15) << 4);
+    }
+
+    private void put(ByteBuffer image, int base, int slot, int bits, int mask) {
+        int offset = base + slotOffsets[slot];
+        int shift = slotShifts[slot];
+        image.putShort(offset, (short) (image.getShort(offset) & ~(mask << shift) | (bits & mask) << shift));
+    }
+
+    private int get(ByteBuffer image, int base, int slot, int mask) {
+        return image.getShort(base + slotOffsets[slot]) >>> slotShifts[slot] & mask;
+    }
+
+    private static int gcd(int a, int b) {
+        return b == 0 ? a : gcd(b, a % b);
+    }
+}
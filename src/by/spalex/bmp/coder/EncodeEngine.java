@@ -0,0 +1,79 @@
+package by.spalex.bmp.coder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Engine moving encoded bytes between text and image for {@link EncodePattern}.
+ * Scalar engine is always available. Vector engine is built from src-vector on JDK 16+ and is picked
+ * at runtime when module jdk.incubator.vector is present ({@code --add-modules jdk.incubator.vector}).
+ * Both engines produce identical bytes. Scalar engine may be forced by {@code -Dbmpcoder.engine=scalar}
+ */
+abstract class EncodeEngine {
+
+    private static final String VECTOR_ENGINE = "by.spalex.bmp.coder.VectorEngine";
+
+    static final EncodeEngine SCALAR = new EncodeEngine() {
+        @Override
+        void embed(EncodePattern pattern, ByteBuffer image, int offset, byte[] values, int from, int count) {
+            pattern.embedScalar(image, offset, values, from, count);
+        }
+
+        @Override
+        void extract(EncodePattern pattern, ByteBuffer image, int offset, byte[] values, int from, int count) {
+            pattern.extractScalar(image, offset, values, from, count);
+        }
+
+        @Override
+        String getName() {
+            return "scalar";
+        }
+    };
+
+    private static final EncodeEngine INSTANCE = load();
+
+    /**
+     * @return engine picked for current platform
+     */
+    static EncodeEngine get() {
+        return INSTANCE;
+    }
+
+    private static EncodeEngine load() {
+        if ("scalar".equals(System.getProperty("bmpcoder.engine"))) {
+            return SCALAR;
+        }
+        try {
+            return (EncodeEngine) Class.forName(VECTOR_ENGINE).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+            // engine isn't built, module isn't present or hardware has no suitable vectors
+            return SCALAR;
+        }
+    }
+
+    /**
+     * Stores sequence of encoded bytes into image
+     * @param pattern encoding pattern
+     * @param image   little-endian buffer with file bytes
+     * @param offset  index of first file byte of first encoded byte in buffer
+     * @param values  encoded bytes
+     * @param from    index of first encoded byte in values
+     * @param count   count of encoded bytes
+     */
+    abstract void embed(EncodePattern pattern, ByteBuffer image, int offset, byte[] values, int from, int count);
+
+    /**
+     * Retrieves sequence of encoded bytes from image
+     * @param pattern encoding pattern
+     * @param image   little-endian buffer with file bytes
+     * @param offset  index of first file byte of first encoded byte in buffer
+     * @param values  destination array
+     * @param from    index of first encoded byte in values
+     * @param count   count of encoded bytes
+     */
+    abstract void extract(EncodePattern pattern, ByteBuffer image, int offset, byte[] values, int from, int count);
+
+    /**
+     * @return name of engine
+     */
+    abstract String getName();
+}
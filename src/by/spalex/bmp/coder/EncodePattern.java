@@ -0,0 +1,238 @@
+package by.spalex.bmp.coder;
+
+import by.spalex.bmp.bitmap.Bitmap;
+import by.spalex.bmp.bitmap.PixelCursor;
+import by.spalex.bmp.bitmap.header.BitmapHeader;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Describes placement of encoded bytes in bitmap file for every supported bitmap format.
+ * Encoded byte with index N is stored in sample N of {@link PixelCursor} and occupies file bytes
+ * from {@code offset + shift} to {@code offset + shift + span}, where offset is the first byte of sample.
+ * Samples of a row lie at constant stride, so bytes are moved by runs of a row.
+ * Bits are moved word-at-a-time with precomputed spread masks, so there is no branch per bit
+ */
+enum EncodePattern {
+    /**
+     * RGBQUAD pattern: encoded byte replaces reserved byte of palette entry
+     */
+    COLOR_PALETTE(4, 1, 1, 3, 0),
+    /**
+     * X8 R8 G8 B8 pattern: encoded byte replaces first byte of pixel
+     */
+    RGB888(4, 1, 4, 0, 1),
+    /**
+     * X2 B6 G8 R8 pattern: encoded byte is stored by 2 bits in first byte of 4 pixels
+     */
+    TRUE_COLOR(12, 10, 4, 0, 4),
+    /**
+     * X1 R5 G5 B5 pattern: encoded byte is stored by 1 bit in low byte of 8 pixels
+     */
+    RGB555(16, 15, 4, 0, 8),
+    /**
+     * X4 R4 G4 B4 pattern: encoded byte is stored by 4 bits in high byte of 2 pixels
+     */
+    RGB444(4, 3, 4, 1, 2);
+
+    // 2 low bits of bytes 0, 3 and 6 of little-endian word
+    private static final long TRUE_COLOR_MASK = 0x0003_0000_0300_0003L;
+    // low bits of bytes 0, 2, 4 and 6 of little-endian word
+    private static final long RGB555_MASK = 0x0001_0001_0001_0001L;
+    // 6 low bits of encoded byte spread by TRUE_COLOR_MASK
+    private static final long[] TRUE_COLOR_SPREAD = new long[64];
+    // 4 bits of encoded byte spread by RGB555_MASK
+    private static final long[] RGB555_SPREAD = new long[16];
+
+    static {
+        for (int value = 0; value < TRUE_COLOR_SPREAD.length; value++) {
+            TRUE_COLOR_SPREAD[value] = (value & 3) | (long) ((value >> 2) & 3) << 24 | (long) ((value >> 4) & 3) << 48;
+        }
+        for (int value = 0; value < RGB555_SPREAD.length; value++) {
+            RGB555_SPREAD[value] = (value & 1) | (long) ((value >> 1) & 1) << 16
+                    | (long) ((value >> 2) & 1) << 32 | (long) ((value >> 3) & 1) << 48;
+        }
+    }
+
+    // distance between first file bytes of neighbouring encoded bytes
+    private final int stride;
+    // count of file bytes from first to last byte changed by one encoded byte
+    private final int span;
+    // count of bytes storing size of encoded text
+    private final int sizeBytes;
+    // offset of first changed byte from first byte of sample
+    private final int shift;
+    // count of pixels in sample, 0 for palette entries
+    private final int samplePixels;
+
+    EncodePattern(int stride, int span, int sizeBytes, int shift, int samplePixels) {
+        this.stride = stride;
+        this.span = span;
+        this.sizeBytes = sizeBytes;
+        this.shift = shift;
+        this.samplePixels = samplePixels;
+    }
+
+    /**
+     * Determines pattern of bitmap format
+     * @param bitmapHeader bitmap header
+     * @return encoding pattern
+     * @throws IllegalStateException if bitmap format is not supported. Supported Bpp is: Monochrome; EGA; VGA;
+     * HIGH COLOR with BI_RGB, BI_BITFIELDS or  BI_ALPHABITFIELDS compressions; TRUE COLOR or DEEP COLOR
+     */
+    static EncodePattern of(BitmapHeader bitmapHeader) {
+        switch (bitmapHeader.getBitsPerPixel()) {
+            case MONOCHROME:
+            case EGA:
+            case VGA:
+                return COLOR_PALETTE;
+            case HIGH_COLOR:
+                switch (bitmapHeader.getCompression()) {
+                    case BI_RGB:
+                        return RGB555;
+                    case BI_BITFIELDS:
+                    case BI_ALPHABITFIELDS:
+                        return RGB444;
+                }
+                break;
+            case TRUE_COLOR:
+                return TRUE_COLOR;
+            case DEEP_COLOR:
+                return RGB888;
+        }
+        throw new IllegalStateException("Unsupported bitmap format");
+    }
+
+    /**
+     * @param bitmap bitmap instance
+     * @return new cursor over samples storing encoded bytes
+     */
+    PixelCursor cursor(Bitmap bitmap) {
+        return this == COLOR_PALETTE ? bitmap.getPaletteCursor() : bitmap.getPixelCursor(samplePixels);
+    }
+
+    int getStride() {
+        return stride;
+    }
+
+    int getSpan() {
+        return span;
+    }
+
+    int getSizeBytes() {
+        return sizeBytes;
+    }
+
+    int getShift() {
+        return shift;
+    }
+
+    /**
+     * Stores sequence of encoded bytes into image using the best available {@link EncodeEngine}
+     * @param image  little-endian buffer with file bytes
+     * @param offset index of first file byte of first encoded byte in buffer
+     * @param values encoded bytes
+     * @param from   index of first encoded byte in values
+     * @param count  count of encoded bytes
+     */
+    void embed(ByteBuffer image, int offset, byte[] values, int from, int count) {
+        EncodeEngine.get().embed(this, image, offset, values, from, count);
+    }
+
+    /**
+     * Retrieves sequence of encoded bytes from image using the best available {@link EncodeEngine}
+     * @param image  little-endian buffer with file bytes
+     * @param offset index of first file byte of first encoded byte in buffer
+     * @param values destination array
+     * @param from   index of first encoded byte in values
+     * @param count  count of encoded bytes
+     */
+    void extract(ByteBuffer image, int offset, byte[] values, int from, int count) {
+        EncodeEngine.get().extract(this, image, offset, values, from, count);
+    }
+
+    /**
+     * Stores sequence of encoded bytes into image by scalar code
+     * @param image  little-endian buffer with file bytes
+     * @param offset index of first file byte of first encoded byte in buffer
+     * @param values encoded bytes
+     * @param from   index of first encoded byte in values
+     * @param count  count of encoded bytes
+     */
+    void embedScalar(ByteBuffer image, int offset, byte[] values, int from, int count) {
+        int to = from + count;
+        switch (this) {
+            case COLOR_PALETTE:
+            case RGB888:
+                for (int i = from; i < to; i++, offset += stride) {
+                    image.put(offset, values[i]);
+                }
+                break;
+            case TRUE_COLOR:
+                for (int i = from; i < to; i++, offset += stride) {
+                    int value = values[i] & 0xff;
+                    long word = image.getLong(offset);
+                    image.putLong(offset, word & ~TRUE_COLOR_MASK | TRUE_COLOR_SPREAD[value & 0x3f]);
+                    image.put(offset + 9, (byte) (image.get(offset + 9) & ~3 | value >>> 6));
+                }
+                break;
+            case RGB555:
+                for (int i = from; i < to; i++, offset += stride) {
+                    int value = values[i] & 0xff;
+                    // second word starts at byte 7, so its samples are odd bytes
+                    long low = image.getLong(offset);
+                    image.putLong(offset, low & ~RGB555_MASK | RGB555_SPREAD[value & 0xf]);
+                    long high = image.getLong(offset + 7);
+                    image.putLong(offset + 7, high & ~(RGB555_MASK << 8) | RGB555_SPREAD[value >>> 4] << 8);
+                }
+                break;
+            case RGB444:
+                for (int i = from; i < to; i++, offset += stride) {
+                    int value = values[i];
+                    image.put(offset, (byte) (image.get(offset) & 0x0f | value & 0xf0));
+                    image.put(offset + 2, (byte) (image.get(offset + 2) & 0x0f | value << 4));
+                }
+                break;
+        }
+    }
+
+    /**
+     * Retrieves sequence of encoded bytes from image by scalar code
+     * @param image  little-endian buffer with file bytes
+     * @param offset index of first file byte of first encoded byte in buffer
+     * @param values destination array
+     * @param from   index of first encoded byte in values
+     * @param count  count of encoded bytes
+     */
+    void extractScalar(ByteBuffer image, int offset, byte[] values, int from, int count) {
+        int to = from + count;
+        switch (this) {
+            case COLOR_PALETTE:
+            case RGB888:
+                for (int i = from; i < to; i++, offset += stride) {
+                    values[i] = image.get(offset);
+                }
+                break;
+            case TRUE_COLOR:
+                for (int i = from; i < to; i++, offset += stride) {
+                    long word = image.getLong(offset);
+                    values[i] = (byte) (word & 3 | word >>> 22 & 0xc | word >>> 44 & 0x30
+                            | (image.get(offset + 9) & 3) << 6);
+                }
+                break;
+            case RGB555:
+                for (int i = from; i < to; i++, offset += stride) {
+                    long low = image.getLong(offset);
+                    long high = image.getLong(offset + 7);
+                    values[i] = (byte) (low & 1 | low >>> 15 & 2 | low >>> 30 & 4 | low >>> 45 & 8
+                            | high >>> 4 & 0x10 | high >>> 19 & 0x20 | high >>> 34 & 0x40 | high >>> 49 & 0x80);
+                }
+                break;
+            case RGB444:
+                for (int i = from; i < to; i++, offset += stride) {
+                    values[i] = (byte) (image.get(offset) & 0xf0 | (image.get(offset + 2) & 0xf0) >>> 4);
+                }
+                break;
+        }
+    }
+}
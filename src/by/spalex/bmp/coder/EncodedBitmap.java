@@ -0,0 +1,89 @@
+package by.spalex.bmp.coder;
+
+import by.spalex.bmp.bitmap.BitmapData;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Result of encoding: the original file with one modified region.
+ * Only the modified region is held as a copy, the rest is read from the original bitmap on output
+ */
+public class EncodedBitmap {
+
+    private final BitmapData source;
+    private final long regionOffset;
+    private final byte[] region;
+
+    /**
+     * @param source       content of original file
+     * @param regionOffset offset of modified region from begin of file
+     * @param region       modified bytes which replace original ones starting at regionOffset
+     */
+    EncodedBitmap(BitmapData source, long regionOffset, byte[] region) {
+        this.source = source;
+        this.regionOffset = regionOffset;
+        this.region = region;
+    }
+
+    /**
+     * @return size of encoded file in bytes
+     */
+    public long size() {
+        return source.size();
+    }
+
+    /**
+     * @return encoded file as new byte array
+     * @throws IllegalStateException if file is larger than 2 GB
+     */
+    public byte[] toByteArray() {
+        if (size() > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("Bitmap is too large for single array " + size());
+        }
+        byte[] bytes = new byte[(int) size()];
+        source.read(0, bytes, 0, bytes.length);
+        System.arraycopy(region, 0, bytes, (int) regionOffset, region.length);
+        return bytes;
+    }
+
+    /**
+     * Writes encoded file to channel without materializing it
+     * @param channel target channel
+     * @throws IOException in case of write error
+     */
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        source.transferTo(0, regionOffset, channel);
+        ByteBuffer buffer = ByteBuffer.wrap(region);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        long end = regionOffset + region.length;
+        source.transferTo(end, source.size() - end, channel);
+    }
+
+    /**
+     * Writes encoded file to temporary file which then replaces target. Source bitmap may be mapped
+     * from the target file, so target is replaced only after the whole file is written
+     * @param target path of encoded file
+     * @throws IOException in case of write error
+     */
+    public void writeTo(Path target) throws IOException {
+        Path absolute = target.toAbsolutePath();
+        Path temp = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                writeTo(channel);
+            }
+            Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
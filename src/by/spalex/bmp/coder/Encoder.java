@@ -1,16 +1,45 @@
 package by.spalex.bmp.coder;
 
 import by.spalex.bmp.bitmap.Bitmap;
-import by.spalex.bmp.bitmap.header.Bpp;
-import by.spalex.bmp.bitmap.header.Compression;
+import by.spalex.bmp.bitmap.BitmapData;
+import by.spalex.bmp.bitmap.PixelCursor;
 
+import java.io.EOFException;
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Set;
+import java.util.zip.Deflater;
 
 /**
  * Class performs encoding of text to bitmap file
  */
 public class Encoder {
+
+    /**
+     * Flag of size of encoded text marking text compressed by {@link Deflater}.
+     * Compressed text is preceded by its original length as big-endian int
+     */
+    static final int COMPRESSED = 1 << 31;
+    /**
+     * Flag of size of encoded text marking text stored by {@link DepthLayout}, layout byte follows size
+     * in {@link FrameHeader}
+     */
+    static final int LAYOUT = 1 << 30;
+    /**
+     * Maximum size of encoded text which leaves flags of size clear
+     */
+    static final int MAX_SIZE = LAYOUT - 1;
+
+    // count of payload bytes read from channel at once
+    private static final int BLOCK = 1 << 16;
+
     private final Bitmap bitmap;
+    private Progress progress = Progress.NONE;
+    private boolean compression;
+    private DepthLayout layout;
 
     /**
      * Create Encoder instance
@@ -20,6 +49,48 @@ public class Encoder {
         this.bitmap = bitmap;
     }
 
+    /**
+     * Sets listener of encoding progress. Progress is counted in encoded bytes including size of text,
+     * encoding is stopped by {@link java.util.concurrent.CancellationException} when listener cancels it
+     * @param progress listener, null for none
+     */
+    public void setProgress(Progress progress) {
+        this.progress = progress == null ? Progress.NONE : progress;
+    }
+
+    /**
+     * Enables compression of text by {@link Deflater}. Text is stored as is if it doesn't become shorter.
+     * Bitmaps with color palette store size of text in one byte which has no room for the flag,
+     * so their text is never compressed. {@link Decoder} detects compression itself
+     * @param compression true to compress text
+     */
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Stores text in {@code depth} low bits of chosen color channels of every pixel instead of default placement
+     * of bitmap format, so encode capacity grows with depth. Size of text and layout are stored in default
+     * placement, so {@link Decoder} detects layout itself. Layout is supported by TRUE COLOR, DEEP COLOR and
+     * HIGH COLOR bitmaps, alpha channel of bitmap without alpha mask is the unused bits of pixel
+     * @param depth    count of low bits of channel holding text from 1 to 4, 0 restores default placement
+     * @param channels channels holding text, ignored if depth is 0
+     * @throws IllegalArgumentException if depth or channels are invalid, bitmap has color palette or is too small,
+     * or some channel has less than depth bits
+     */
+    public void setLayout(int depth, Set<ColorChannel> channels) {
+        layout = depth == 0 ? null : DepthLayout.of(bitmap, depth, channels);
+    }
+
+    /**
+     * @return count of bytes which can be encoded into bitmap with current layout, compressed text takes
+     * 4 bytes more than its compressed size
+     * @see #setLayout(int, Set)
+     */
+    public long getEncodeCapacity() {
+        return layout == null ? bitmap.getEncodeCapacity() : Math.min(layout.getCapacity(), MAX_SIZE);
+    }
+
     /**
      * Encode text into bitmap
      * @param textBytes text data
@@ -28,142 +99,266 @@ public class Encoder {
      * HIGH COLOR with BI_RGB, BI_BITFIELDS or  BI_ALPHABITFIELDS compressions; TRUE COLOR or DEEP COLOR
      */
     public byte[] encode(byte[] textBytes) {
-        Bpp bpp = bitmap.getBitmapHeader().getBitsPerPixel();
-        byte[] textSize;
-        if (bpp.ordinal() < Bpp.HIGH_COLOR.ordinal()) {
-            textSize = new byte[]{(byte) textBytes.length};
-        } else {
-            textSize = ByteBuffer.allocate(4).putInt(textBytes.length).array();
-        }
-        byte[] encodeBytes = new byte[textBytes.length + textSize.length];
-        // first 2/4 byte -  size of textBytes array
-        System.arraycopy(textSize, 0, encodeBytes, 0, textSize.length);
-        System.arraycopy(textBytes, 0, encodeBytes, textSize.length, textBytes.length);
-
-        Compression compression = bitmap.getBitmapHeader().getCompression();
-        switch (bpp) {
-            case MONOCHROME:
-            case EGA:
-            case VGA:
-                return encodeColorPalette(encodeBytes);
-            case HIGH_COLOR:
-                switch (compression) {
-                    case BI_RGB:
-                        return encodeRGB555(encodeBytes);
-                    case BI_BITFIELDS:
-                    case BI_ALPHABITFIELDS:
-                        return encodeRGB444(encodeBytes);
-                }
-                break;
-            case TRUE_COLOR:
-                return encodeTrueColor(encodeBytes);
-            case DEEP_COLOR:
-                return encodeRGB888(encodeBytes);
-            default:
+        return encodeRegion(textBytes).toByteArray();
+    }
 
-        }
-        throw new IllegalStateException("Unsupported bitmap format");
+    /**
+     * Encode text into bitmap copying only the region of file which is changed by encoding
+     * @param textBytes text data
+     * @return encoded bitmap sharing unchanged bytes with source bitmap
+     * @throws IllegalArgumentException if bitmap Bpp is not supported. Supported Bpp is: Monochrome; EGA; VGA;
+     * HIGH COLOR with BI_RGB, BI_BITFIELDS or  BI_ALPHABITFIELDS compressions; TRUE COLOR or DEEP COLOR
+     */
+    public EncodedBitmap encodeRegion(byte[] textBytes) {
+        return encodeRegion(textBytes, Integer.MAX_VALUE);
     }
 
     /**
-     * Encode text into bitmap using X2 B6 G8 R8 pattern
-     * @param encodeBytes text data
-     * @return bitmap as array of byte
+     * Encode text into bitmap
+     * @param text    text
+     * @param charset charset of encoded text bytes, the same charset must be passed to
+     *                {@link Decoder#decode(Charset)}
+     * @return encoded bitmap sharing unchanged bytes with source bitmap
+     * @throws IllegalArgumentException if bitmap Bpp is not supported or text exceeds encode capacity
      */
-    private byte[] encodeTrueColor(byte[] encodeBytes) {
-        byte[] image = bitmap.getBytes();
-        int offset = (int) bitmap.getHeader().getOffset();
-        for (byte toEncode : encodeBytes) {
-            for (int y = 0; y < 8; y = y + 2) {
-                if (((toEncode >> y) & 1) > 0) {
-                    image[offset] |= 1;
-                } else {
-                    image[offset] &= 0xfe;
-                }
-                if (((toEncode >> (y + 1)) & 1) > 0) {
-                    image[offset] |= 2;
-                } else {
-                    image[offset] &= 0xfd;
+    public EncodedBitmap encodeText(String text, Charset charset) {
+        return encodeRegion(text.getBytes(charset));
+    }
+
+    /**
+     * Encode payload read from channel into bitmap. Payload is read and embedded by blocks of 65536 bytes,
+     * so it is never held whole. Payload is stored uncompressed whatever {@link #setCompression(boolean)} is,
+     * because size of compressed payload is written before it and isn't known until whole payload is read
+     * @param payload channel with payload data
+     * @param length  count of bytes which will be read from payload channel
+     * @return encoded bitmap sharing unchanged bytes with source bitmap
+     * @throws IOException              in case of read error or if channel ends before length bytes
+     * @throws IllegalArgumentException if bitmap Bpp is not supported or payload exceeds encode capacity
+     */
+    public EncodedBitmap encode(ReadableByteChannel payload, long length) throws IOException {
+        EncodePattern pattern = EncodePattern.of(bitmap.getBitmapHeader());
+        int frameBytes = FrameHeader.length(pattern, layout);
+        PixelCursor cursor = pattern.cursor(bitmap);
+        if (length < 0 || (layout == null ? frameBytes + length > cursor.getSampleCount()
+                : length > getEncodeCapacity())) {
+            throw new IllegalArgumentException("Text size " + length + " exceeds encode capacity "
+                    + getEncodeCapacity());
+        }
+        long count = frameBytes + length;
+        int shift = pattern.getShift();
+        long regionOffset = cursor.offsetOf(0) + shift;
+        long regionEnd = layout != null && length > 0 ? layout.endOf(length - 1)
+                : cursor.offsetOf(layout == null ? count - 1 : frameBytes - 1) + shift + pattern.getSpan();
+        byte[] region = new byte[regionLength(regionEnd - regionOffset)];
+        BitmapData data = bitmap.getData();
+        data.read(regionOffset, region, 0, region.length);
+        ByteBuffer image = ByteBuffer.wrap(region).order(ByteOrder.LITTLE_ENDIAN);
+
+        ProgressCounter counter = new ProgressCounter(progress, count);
+        byte[] frame = new byte[frameBytes];
+        FrameHeader.write(frame, pattern, layout, (int) length);
+        embed(pattern, cursor, image, regionOffset, frame, 0, frameBytes, counter);
+        byte[] block = new byte[(int) Math.min(BLOCK, length)];
+        ByteBuffer buffer = ByteBuffer.wrap(block);
+        for (long index = 0; index < length; index += buffer.limit()) {
+            buffer.clear();
+            buffer.limit((int) Math.min(block.length, length - index));
+            while (buffer.hasRemaining()) {
+                if (payload.read(buffer) < 0) {
+                    throw new EOFException("Payload ends before " + length + " bytes");
                 }
-                offset = offset + 3;
+            }
+            if (layout == null) {
+                // cursor follows the frame header
+                embed(pattern, cursor, image, regionOffset, block, 0, buffer.limit(), counter);
+            } else {
+                layout.embed(image, regionOffset, block, 0, buffer.limit(), index);
+                counter.add(buffer.limit());
             }
         }
-        return image;
+        return new EncodedBitmap(data, regionOffset, region);
     }
 
     /**
-     * Encode text into bitmap using RGBQUAD pattern
-     * @param encodeBytes text data
-     * @return bitmap as array of byte
+     * Encode text into bitmap by {@link java.util.concurrent.ForkJoinPool} with default threshold of 65536
+     * encoded bytes per task
+     * @param textBytes text data
+     * @return encoded bitmap sharing unchanged bytes with source bitmap
+     * @throws IllegalArgumentException if bitmap Bpp is not supported
+     * @see #encodeParallel(byte[], int)
      */
-    private byte[] encodeColorPalette(byte[] encodeBytes) {
-        byte[] image = bitmap.getBytes();
-        int offset = bitmap.getPaletteOffset() + 3;
-        for (byte encodeByte : encodeBytes) {
-            image[offset] = encodeByte;
-            offset += 4;
-        }
-        return image;
+    public EncodedBitmap encodeParallel(byte[] textBytes) {
+        return encodeParallel(textBytes, RangeTask.DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Encode text into bitmap by {@link java.util.concurrent.ForkJoinPool}. Encoded bytes are split into ranges
+     * which are copied from source bitmap and embedded independently. Text not longer than threshold is encoded
+     * in current thread. Result is identical to {@link #encodeRegion(byte[])}
+     * @param textBytes text data
+     * @param threshold maximum count of encoded bytes processed by one task
+     * @return encoded bitmap sharing unchanged bytes with source bitmap
+     * @throws IllegalArgumentException if bitmap Bpp is not supported, text exceeds encode capacity
+     * or threshold is not positive
+     */
+    public EncodedBitmap encodeParallel(byte[] textBytes, int threshold) {
+        return encodeRegion(textBytes, RangeTask.checkThreshold(threshold));
     }
 
+    private EncodedBitmap encodeRegion(byte[] textBytes, int threshold) {
+        if (layout != null) {
+            return encodeLayout(textBytes, threshold);
+        }
+        EncodePattern pattern = EncodePattern.of(bitmap.getBitmapHeader());
+        int frameBytes = FrameHeader.length(pattern, null);
+        byte[] encodeBytes = new byte[textBytes.length + frameBytes];
+        int compressedLength = compression && frameBytes > 1 ? deflate(textBytes, encodeBytes, frameBytes) : -1;
+        // count of encoded bytes, compressed text takes only beginning of array
+        int length = compressedLength > 0 ? compressedLength : encodeBytes.length;
+        if (compressedLength > 0) {
+            FrameHeader.write(encodeBytes, pattern, null, COMPRESSED | (compressedLength - frameBytes));
+        } else {
+            FrameHeader.write(encodeBytes, pattern, null, textBytes.length);
+            System.arraycopy(textBytes, 0, encodeBytes, frameBytes, textBytes.length);
+        }
+
+        BitmapData data = bitmap.getData();
+        PixelCursor samples = pattern.cursor(bitmap);
+        if (length > samples.getSampleCount()) {
+            throw new IllegalArgumentException("Text size " + textBytes.length + " exceeds encode capacity "
+                    + bitmap.getEncodeCapacity());
+        }
+        int shift = pattern.getShift();
+        long regionOffset = samples.offsetOf(0) + shift;
+        long regionEnd = samples.offsetOf(length - 1) + shift + pattern.getSpan();
+        byte[] region = new byte[regionLength(regionEnd - regionOffset)];
+        ByteBuffer image = ByteBuffer.wrap(region).order(ByteOrder.LITTLE_ENDIAN);
+        ProgressCounter counter = new ProgressCounter(progress, length);
+        RangeTask.run(length, threshold, (from, to) -> {
+            // range owns file bytes from its first encoded byte to the next range, so ranges share nothing
+            long begin = samples.offsetOf(from) + shift;
+            long end = to == length ? regionEnd : samples.offsetOf(to) + shift;
+            data.read(begin, region, (int) (begin - regionOffset), (int) (end - begin));
+            embed(pattern, pattern.cursor(bitmap).seek(from), image, regionOffset, encodeBytes, from, to, counter);
+        });
+        return new EncodedBitmap(data, regionOffset, region);
+    }
 
     /**
-     * Encode text into bitmap using X8 R8 G8 B8 pattern
-     * @param encodeBytes text data
-     * @return bitmap as array of byte
+     * Encode frame header by pattern of bitmap format and text by layout. Text is split into ranges
+     * of whole periods, so pixels shared by neighbouring encoded bytes are changed by one task
      */
-    private byte[] encodeRGB888(byte[] encodeBytes) {
-        byte[] image = bitmap.getBytes();
-        int offset = (int) bitmap.getHeader().getOffset();
-        for (byte encodeByte : encodeBytes) {
-            image[offset] = encodeByte;
-            offset = offset + 4;
+    private EncodedBitmap encodeLayout(byte[] textBytes, int threshold) {
+        EncodePattern pattern = EncodePattern.of(bitmap.getBitmapHeader());
+        int frameBytes = FrameHeader.length(pattern, layout);
+        byte[] encodeBytes = new byte[textBytes.length + frameBytes];
+        int compressedLength = compression ? deflate(textBytes, encodeBytes, frameBytes) : -1;
+        int length = compressedLength > 0 ? compressedLength : encodeBytes.length;
+        int size = length - frameBytes;
+        if (size > getEncodeCapacity()) {
+            throw new IllegalArgumentException("Text size " + textBytes.length + " exceeds encode capacity "
+                    + getEncodeCapacity());
+        }
+        if (compressedLength > 0) {
+            FrameHeader.write(encodeBytes, pattern, layout, COMPRESSED | size);
+        } else {
+            FrameHeader.write(encodeBytes, pattern, layout, size);
+            System.arraycopy(textBytes, 0, encodeBytes, frameBytes, textBytes.length);
+        }
+
+        BitmapData data = bitmap.getData();
+        PixelCursor frame = pattern.cursor(bitmap);
+        int shift = pattern.getShift();
+        long regionOffset = frame.offsetOf(0) + shift;
+        long frameEnd = frame.offsetOf(frameBytes - 1) + shift + pattern.getSpan();
+        long textOffset = size > 0 ? layout.offsetOf(0) : frameEnd;
+        long regionEnd = size > 0 ? layout.endOf(size - 1) : frameEnd;
+        byte[] region = new byte[regionLength(regionEnd - regionOffset)];
+        ByteBuffer image = ByteBuffer.wrap(region).order(ByteOrder.LITTLE_ENDIAN);
+        ProgressCounter counter = new ProgressCounter(progress, length);
+        // frame header and bytes before the first period of text
+        data.read(regionOffset, region, 0, (int) (textOffset - regionOffset));
+        embed(pattern, frame, image, regionOffset, encodeBytes, 0, frameBytes, counter);
+
+        if (size == 0) {
+            return new EncodedBitmap(data, regionOffset, region);
         }
-        return image;
+        int period = layout.getBytesPerPeriod();
+        int periods = (int) (((long) size + period - 1) / period);
+        RangeTask.run(periods, Math.max(1, threshold / period), (from, to) -> {
+            // range owns file bytes from its first period to the next range
+            long begin = layout.offsetOf((long) from * period);
+            long end = to == periods ? regionEnd : layout.offsetOf((long) to * period);
+            data.read(begin, region, (int) (begin - regionOffset), (int) (end - begin));
+            int last = (int) Math.min((long) to * period, size);
+            for (int index = from * period; index < last; ) {
+                int count = Math.min(BLOCK, last - index);
+                layout.embed(image, regionOffset, encodeBytes, frameBytes + index, frameBytes + index + count, index);
+                index += count;
+                counter.add(count);
+            }
+        });
+        return new EncodedBitmap(data, regionOffset, region);
     }
 
+    /**
+     * Stores encoded bytes by runs of cursor
+     * @param pattern      encoding pattern
+     * @param cursor       cursor at sample of first encoded byte, it is moved past the last one
+     * @param image        little-endian buffer with file bytes
+     * @param regionOffset offset of first byte of buffer from begin of file
+     * @param bytes        encoded bytes
+     * @param from         index of first stored element of bytes
+     * @param to           index after last stored element of bytes
+     * @param counter      counter of stored bytes
+     */
+    private static void embed(EncodePattern pattern, PixelCursor cursor, ByteBuffer image, long regionOffset,
+                              byte[] bytes, int from, int to, ProgressCounter counter) {
+        int shift = pattern.getShift();
+        while (from < to) {
+            int count = Math.min(cursor.getRun(), to - from);
+            pattern.embed(image, (int) (cursor.getOffset() + shift - regionOffset), bytes, from, count);
+            cursor.advance(count);
+            from += count;
+            counter.add(count);
+        }
+    }
 
     /**
-     * Encoding text into bitmap using X1 R5 G5 B5 pattern
-     * @param encodeBytes text data
-     * @return image as byte's array
+     * Deflates text straight into array of encoded bytes after frame header and original length
+     * @param textBytes   text data
+     * @param encodeBytes array of encoded bytes of uncompressed text, compressed text must be shorter
+     * @param frameBytes  count of bytes of frame header
+     * @return count of encoded bytes, -1 if compressed text is not shorter than uncompressed one
      */
-    private byte[] encodeRGB555(byte[] encodeBytes) {
-        byte[] image = bitmap.getBytes();
-        int offset = (int) bitmap.getHeader().getOffset();
-        for (byte toEncode : encodeBytes) {
-            for (int y = 0; y < 8; y++) {
-                if (((toEncode >> y) & 1) > 0) {
-                    image[offset] |= 1;
-                } else {
-                    image[offset] &= ~1;
-                }
-                offset = offset + 2;
+    private static int deflate(byte[] textBytes, byte[] encodeBytes, int frameBytes) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(textBytes);
+            deflater.finish();
+            int offset = frameBytes + 4;
+            while (!deflater.finished() && offset < encodeBytes.length) {
+                offset += deflater.deflate(encodeBytes, offset, encodeBytes.length - offset);
             }
+            if (!deflater.finished()) {
+                return -1;
+            }
+            ByteBuffer.wrap(encodeBytes).putInt(frameBytes, textBytes.length);
+            return offset;
+        } finally {
+            deflater.end();
         }
-        return image;
-    }
-
-    /**
-     * Encoding text into bitmap using X4 R4 G4 B4 pattern
-     * @param encodeBytes text data
-     * @return image as byte's array
-     */
-    private byte[] encodeRGB444(byte[] encodeBytes) {
-        byte[] image = bitmap.getBytes();
-        int offset = (int) bitmap.getHeader().getOffset() + 1;
-        for (byte toEncode : encodeBytes) {
-            byte low = (byte) (toEncode & 0xf0);
-            byte high = (byte) ((toEncode & 0x0f) << 4);
-            image[offset] = (byte) (image[offset] & 0x0f);
-            image[offset] = (byte) (image[offset] | low);
-            offset = offset + 2;
-            image[offset] = (byte) (image[offset] & 0x0f);
-            image[offset] = (byte) (image[offset] | high);
-            offset = offset + 2;
-        }
-        return image;
     }
 
+    /**
+     * @param length length of region of bitmap file which will be changed by encoding
+     * @return length of region
+     * @throws IllegalArgumentException if region doesn't fit into array
+     */
+    private static int regionLength(long length) {
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Encoded region is too large " + length);
+        }
+        return (int) length;
+    }
 }
-
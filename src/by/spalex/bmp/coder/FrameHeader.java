@@ -0,0 +1,191 @@
+package by.spalex.bmp.coder;
+
+import by.spalex.bmp.bitmap.Bitmap;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * Frame header preceding encoded text in samples of {@link EncodePattern}: magic, size of text with
+ * {@link Encoder#COMPRESSED} and {@link Encoder#LAYOUT} flags, layout byte of {@link DepthLayout} if the flag
+ * is set, and CRC32 of these bytes, all big-endian. Magic and CRC tell bitmap holding text from any other one
+ * after reading a dozen of encoded bytes. Bitmaps with color palette store one-byte size only, they have no room
+ * for the rest. Headers of older versions without magic hold only big-endian size, they are still read by decoding
+ * but not accepted by {@link Decoder#hasPayload()}
+ */
+final class FrameHeader {
+
+    // "BMPF", it has LAYOUT flag set, so it is never a size of header without magic
+    static final int MAGIC = 0x424d5046;
+    /**
+     * Count of encoded bytes of header without layout byte
+     */
+    static final int LENGTH = 12;
+    /**
+     * Count of encoded bytes of header with layout byte
+     */
+    static final int MAX_LENGTH = LENGTH + 1;
+
+    // count of encoded bytes of header
+    private final int length;
+    // size of encoded text following header without flags
+    private final long size;
+    private final boolean compressed;
+    // null if text follows header in samples of pattern
+    private final DepthLayout layout;
+
+    private FrameHeader(int length, long size, boolean compressed, DepthLayout layout) {
+        this.length = length;
+        this.size = size;
+        this.compressed = compressed;
+        this.layout = layout;
+    }
+
+    /**
+     * @param pattern encoding pattern of bitmap
+     * @param layout  layout of text, null if text follows header in samples of pattern
+     * @return count of encoded bytes of header
+     */
+    static int length(EncodePattern pattern, DepthLayout layout) {
+        if (pattern.getSizeBytes() == 1) {
+            return 1;
+        }
+        return layout == null ? LENGTH : MAX_LENGTH;
+    }
+
+    /**
+     * Writes header
+     * @param bytes   destination array, header takes {@link #length(EncodePattern, DepthLayout)} first bytes
+     * @param pattern encoding pattern of bitmap
+     * @param layout  layout of text, null if text follows header in samples of pattern
+     * @param size    size of encoded text with {@link Encoder#COMPRESSED} flag
+     */
+    static void write(byte[] bytes, EncodePattern pattern, DepthLayout layout, int size) {
+        if (pattern.getSizeBytes() == 1) {
+            bytes[0] = (byte) size;
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, layout == null ? size : size | Encoder.LAYOUT);
+        int checked = 8;
+        if (layout != null) {
+            bytes[checked++] = layout.toByte();
+        }
+        buffer.putInt(checked, crc(bytes, checked));
+    }
+
+    /**
+     * Counts encoded bytes which must be read after the first ones to get whole header. Reading starts with
+     * {@link EncodePattern#getSizeBytes()} bytes and goes on while result is positive
+     * @param bytes encoded bytes from the first one
+     * @param count count of read bytes
+     * @return count of bytes to read next, 0 if header is read
+     */
+    static int remaining(byte[] bytes, int count) {
+        if (count < 4 || ByteBuffer.wrap(bytes).getInt(0) != MAGIC) {
+            return 0;
+        }
+        if (count < 8) {
+            return 8 - count;
+        }
+        int length = (ByteBuffer.wrap(bytes).getInt(4) & Encoder.LAYOUT) != 0 ? MAX_LENGTH : LENGTH;
+        return Math.max(0, length - count);
+    }
+
+    /**
+     * Parses header
+     * @param bitmap  bitmap instance
+     * @param pattern encoding pattern of bitmap
+     * @param bytes   encoded bytes from the first one
+     * @param count   count of read bytes, header must not be longer
+     * @param legacy  true if header without magic is accepted, it has no CRC and is checked by capacity only
+     * @return header, null if bytes don't start with valid header or size of text exceeds capacity
+     */
+    static FrameHeader read(Bitmap bitmap, EncodePattern pattern, byte[] bytes, int count, boolean legacy) {
+        long samples = pattern.cursor(bitmap).getSampleCount();
+        if (pattern.getSizeBytes() == 1) {
+            long size = Byte.toUnsignedInt(bytes[0]);
+            return count >= 1 && size <= samples - 1 ? new FrameHeader(1, size, false, null) : null;
+        }
+        if (count < 4) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int length;
+        int word;
+        DepthLayout layout = null;
+        if (buffer.getInt(0) == MAGIC) {
+            if (count < 8) {
+                return null;
+            }
+            word = buffer.getInt(4);
+            length = (word & Encoder.LAYOUT) != 0 ? MAX_LENGTH : LENGTH;
+            if (count < length || buffer.getInt(length - 4) != crc(bytes, length - 4)) {
+                return null;
+            }
+            if (length == MAX_LENGTH) {
+                layout = DepthLayout.read(bitmap, bytes[8]);
+                if (layout == null) {
+                    return null;
+                }
+            }
+        } else {
+            // header without magic, sizes of its text never reach flag of layout
+            word = buffer.getInt(0);
+            if (!legacy || (word & Encoder.LAYOUT) != 0) {
+                return null;
+            }
+            length = 4;
+        }
+        boolean compressed = word < 0;
+        long size = word & Encoder.MAX_SIZE;
+        long capacity = layout != null ? layout.getCapacity() : samples - length;
+        if (size > capacity || compressed && size < 4) {
+            return null;
+        }
+        return new FrameHeader(length, size, compressed, layout);
+    }
+
+    /**
+     * Checks original length which precedes deflated bytes of compressed text
+     * @param length original length of text
+     * @param size   size of compressed text including its original length
+     * @return true if deflated bytes of compressed text can be inflated to length
+     */
+    static boolean isInflatedLength(long length, long size) {
+        // deflate never shrinks data more than 1032 times, larger length is not written by Encoder
+        return length >= 0 && length <= (size - 4) * 1032;
+    }
+
+    private static int crc(byte[] bytes, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * @return count of encoded bytes of header
+     */
+    int getLength() {
+        return length;
+    }
+
+    /**
+     * @return size of encoded text, compressed text includes its original length
+     */
+    long getSize() {
+        return size;
+    }
+
+    boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * @return layout of text, null if text follows header in samples of pattern
+     */
+    DepthLayout getLayout() {
+        return layout;
+    }
+}
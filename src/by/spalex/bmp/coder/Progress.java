@@ -0,0 +1,29 @@
+package by.spalex.bmp.coder;
+
+/**
+ * Listener of progress of encoding and decoding. It is called from threads performing the operation,
+ * parallel operations call it from several threads at the same time
+ */
+public interface Progress {
+
+    /**
+     * Listener ignoring progress, operation is never cancelled
+     */
+    Progress NONE = (done, total) -> {
+    };
+
+    /**
+     * @param done  count of bytes processed so far
+     * @param total count of bytes processed by the whole operation
+     */
+    void update(long done, long total);
+
+    /**
+     * Operation checks cancellation after every update and stops by
+     * {@link java.util.concurrent.CancellationException} when it is requested
+     * @return true if operation must be stopped
+     */
+    default boolean isCancelled() {
+        return false;
+    }
+}
@@ -0,0 +1,39 @@
+package by.spalex.bmp.coder;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counter of processed bytes shared by all ranges of one operation
+ */
+final class ProgressCounter {
+
+    private final Progress progress;
+    private final long total;
+    private final AtomicLong done = new AtomicLong();
+
+    /**
+     * Create ProgressCounter instance
+     * @param progress listener, null for none
+     * @param total    count of bytes processed by the whole operation
+     */
+    ProgressCounter(Progress progress, long total) {
+        this.progress = progress == null ? Progress.NONE : progress;
+        this.total = total;
+    }
+
+    /**
+     * Reports processed bytes and checks cancellation
+     * @param count count of bytes processed since the last call
+     * @throws CancellationException if operation is cancelled
+     */
+    void add(int count) {
+        if (progress == Progress.NONE) {
+            return;
+        }
+        progress.update(done.addAndGet(count), total);
+        if (progress.isCancelled()) {
+            throw new CancellationException("Operation is cancelled");
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package by.spalex.bmp.coder;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fork/join task processing range of encoded bytes. Range is split in halves until it is not longer than threshold.
+ * File offset of every encoded byte is a closed-form function of its index and encoded bytes never share file
+ * bytes, so ranges are processed with no coordination
+ */
+final class RangeTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Default count of encoded bytes processed by one task
+     */
+    static final int DEFAULT_THRESHOLD = 1 << 16;
+
+    /**
+     * Action applied to range of encoded bytes
+     */
+    interface Action {
+        /**
+         * @param from index of first encoded byte
+         * @param to   index after last encoded byte
+         */
+        void apply(int from, int to);
+    }
+
+    private final Action action;
+    private final int threshold;
+    private final int from;
+    private final int to;
+
+    private RangeTask(Action action, int threshold, int from, int to) {
+        this.action = action;
+        this.threshold = threshold;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Applies action to encoded bytes from 0 to count. Action is called in current thread if count doesn't exceed
+     * threshold, otherwise ranges are processed by common {@link ForkJoinPool}
+     * @param count     count of encoded bytes
+     * @param threshold maximum count of encoded bytes processed by one task
+     * @param action    action applied to ranges
+     */
+    static void run(int count, int threshold, Action action) {
+        if (count <= threshold) {
+            action.apply(0, count);
+        } else {
+            ForkJoinPool.commonPool().invoke(new RangeTask(action, threshold, 0, count));
+        }
+    }
+
+    /**
+     * @param threshold maximum count of encoded bytes processed by one task
+     * @return threshold
+     * @throws IllegalArgumentException if threshold is not positive
+     */
+    static int checkThreshold(int threshold) {
+        if (threshold < 1) {
+            throw new IllegalArgumentException("Invalid parallelism threshold " + threshold);
+        }
+        return threshold;
+    }
+
+    @Override
+    protected void compute() {
+        if (to - from <= threshold) {
+            action.apply(from, to);
+        } else {
+            int middle = (from + to) >>> 1;
+            invokeAll(new RangeTask(action, threshold, from, middle), new RangeTask(action, threshold, middle, to));
+        }
+    }
+}
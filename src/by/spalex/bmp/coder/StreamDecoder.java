@@ -0,0 +1,279 @@
+package by.spalex.bmp.coder;
+
+import by.spalex.bmp.bitmap.Bitmap;
+import by.spalex.bmp.bitmap.PixelCursor;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Class performs decoding of encoded text from bitmap file read from channel.
+ * Reading stops right after the last file byte holding encoded text, so the rest of file is never read.
+ * Seekable channels are repositioned over bytes not holding encoded text
+ */
+public class StreamDecoder {
+
+    private final int blockSize;
+
+    /**
+     * Create StreamDecoder instance with default block size
+     */
+    public StreamDecoder() {
+        this(StreamEncoder.DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Create StreamDecoder instance
+     * @param blockSize approximate size of read block in bytes
+     */
+    public StreamDecoder(int blockSize) {
+        if (blockSize < 16) {
+            throw new IllegalArgumentException("Invalid block size " + blockSize);
+        }
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Decode text from bitmap, compressed text is inflated as it is read
+     * @param source channel with bitmap file positioned at begin of file
+     * @param text   channel for decoded text
+     * @return size of decoded text, 0 if bitmap holds no text
+     * @throws IOException              in case of read or write error or if compressed text is corrupted
+     * @throws IllegalArgumentException if bitmap headers are invalid
+     * @throws IllegalStateException    if bitmap format is not supported
+     */
+    public long decode(ReadableByteChannel source, WritableByteChannel text) throws IOException {
+        ByteBuffer headers = Streams.readHeaders(source);
+        Bitmap bitmap = Bitmap.fromHeaders(headers, Streams.getFileSize(headers));
+        EncodePattern pattern = EncodePattern.of(bitmap.getBitmapHeader());
+        PixelCursor cursor = pattern.cursor(bitmap);
+        int samples = (int) Math.min(cursor.getSampleCount(), FrameHeader.MAX_LENGTH);
+        if (samples < pattern.getSizeBytes()) {
+            return 0;
+        }
+        EncodedReader frame = new EncodedReader(pattern, cursor, headers, source);
+
+        // header is read by parts, so text following shorter header is not consumed
+        byte[] bytes = new byte[FrameHeader.MAX_LENGTH];
+        int read = pattern.getSizeBytes();
+        frame.read(bytes, read);
+        for (int more; (more = Math.min(FrameHeader.remaining(bytes, read), samples - read)) > 0; read += more) {
+            byte[] next = new byte[more];
+            frame.read(next, more);
+            System.arraycopy(next, 0, bytes, read, more);
+        }
+        FrameHeader header = FrameHeader.read(bitmap, pattern, bytes, read, true);
+        if (header == null || header.getSize() == 0) {
+            return 0;
+        }
+        long size = header.getSize();
+        Reader reader = frame;
+        byte[] values = new byte[Math.max(1, blockSize / pattern.getStride())];
+        DepthLayout layout = header.getLayout();
+        if (layout != null) {
+            reader = new LayoutReader(layout, source, frame.position);
+            values = new byte[Math.max(1, blockSize / layout.getPeriodSize()) * layout.getBytesPerPeriod()];
+        }
+        if (header.isCompressed()) {
+            return inflate(reader, size, values, text);
+        }
+        for (long left = size; left > 0; ) {
+            int count = (int) Math.min(values.length, left);
+            reader.read(values, count);
+            Streams.write(text, ByteBuffer.wrap(values, 0, count));
+            left -= count;
+        }
+        return size;
+    }
+
+    /**
+     * Inflates compressed text block by block as it is read
+     * @param reader reader positioned after frame header
+     * @param size   size of compressed text including its original length
+     * @param values reusable array for encoded bytes
+     * @param text   channel for decoded text
+     * @return size of decoded text, 0 if original length is invalid
+     * @throws ZipException if compressed text is corrupted
+     */
+    private static long inflate(Reader reader, long size, byte[] values, WritableByteChannel text)
+            throws IOException {
+        byte[] lengthBytes = new byte[4];
+        reader.read(lengthBytes, lengthBytes.length);
+        long length = ByteBuffer.wrap(lengthBytes).getInt();
+        if (!FrameHeader.isInflatedLength(length, size)) {
+            return 0;
+        }
+        byte[] output = new byte[values.length];
+        long done = 0;
+        Inflater inflater = new Inflater();
+        try {
+            for (long left = size - 4; left > 0 && !inflater.finished(); ) {
+                int count = (int) Math.min(values.length, left);
+                reader.read(values, count);
+                inflater.setInput(values, 0, count);
+                while (!inflater.finished() && !inflater.needsInput()) {
+                    int inflated = inflater.inflate(output);
+                    if (inflated == 0 && inflater.needsDictionary()) {
+                        throw new ZipException("Text is compressed with dictionary");
+                    }
+                    done += inflated;
+                    if (done > length) {
+                        throw new ZipException("Compressed text is longer than " + length + " bytes");
+                    }
+                    Streams.write(text, ByteBuffer.wrap(output, 0, inflated));
+                }
+                left -= count;
+            }
+            if (!inflater.finished() || done != length) {
+                throw new ZipException("Compressed text is truncated");
+            }
+            return length;
+        } catch (DataFormatException e) {
+            throw new ZipException("Compressed text is corrupted: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Sequential reader of encoded bytes
+     */
+    private interface Reader {
+        /**
+         * Reads next encoded bytes
+         * @param values destination array
+         * @param count  count of bytes
+         */
+        void read(byte[] values, int count) throws IOException;
+    }
+
+    /**
+     * Sequential reader of encoded bytes. Encoded bytes lying in headers are taken from them,
+     * others are read from channel
+     */
+    private static class EncodedReader implements Reader {
+        private final EncodePattern pattern;
+        private final PixelCursor cursor;
+        private final ByteBuffer headers;
+        private final ReadableByteChannel source;
+        private ByteBuffer buffer;
+        // offset of channel from begin of file
+        private long position;
+
+        private EncodedReader(EncodePattern pattern, PixelCursor cursor, ByteBuffer headers,
+                              ReadableByteChannel source) {
+            this.pattern = pattern;
+            this.cursor = cursor;
+            this.headers = headers;
+            this.source = source;
+            position = headers.limit();
+        }
+
+        @Override
+        public void read(byte[] values, int count) throws IOException {
+            for (int from = 0; from < count; ) {
+                // run lies in one row, padding before the next row is skipped
+                int run = Math.min(count - from, cursor.getRun());
+                read(values, from, run);
+                cursor.advance(run);
+                from += run;
+            }
+        }
+
+        private void read(byte[] values, int from, int count) throws IOException {
+            int stride = pattern.getStride();
+            long first = cursor.getOffset() + pattern.getShift();
+            int length = (count - 1) * stride + pattern.getSpan();
+            ByteBuffer image;
+            int offset;
+            if (first + length <= headers.limit()) {
+                image = headers;
+                offset = (int) first;
+            } else {
+                if (first < position) {
+                    throw new IllegalStateException("Encoded bytes overlap headers");
+                }
+                if (buffer == null || buffer.capacity() < length) {
+                    buffer = ByteBuffer.allocate(Math.max(length, values.length * stride))
+                            .order(ByteOrder.LITTLE_ENDIAN);
+                }
+                Streams.skip(source, first - position, buffer);
+                buffer.clear();
+                buffer.limit(length);
+                if (Streams.fill(source, buffer) < length) {
+                    throw new EOFException("Bitmap ends before encoded text");
+                }
+                position = first + length;
+                image = buffer;
+                offset = 0;
+            }
+            pattern.extract(image, offset, values, from, count);
+        }
+    }
+
+    /**
+     * Sequential reader of encoded bytes stored by {@link DepthLayout}. Periods holding requested bytes are read
+     * from channel at once, the last period is kept, because the next bytes may start in it
+     */
+    private static class LayoutReader implements Reader {
+        private final DepthLayout layout;
+        private final ReadableByteChannel source;
+        private ByteBuffer buffer;
+        // offset of first byte of buffer from begin of file
+        private long bufferOffset;
+        // offset of channel from begin of file
+        private long position;
+        // index of next encoded byte
+        private long index;
+
+        private LayoutReader(DepthLayout layout, ReadableByteChannel source, long position) {
+            this.layout = layout;
+            this.source = source;
+            this.position = position;
+        }
+
+        @Override
+        public void read(byte[] values, int count) throws IOException {
+            if (count == 0) {
+                return;
+            }
+            long first = layout.offsetOf(index);
+            long end = layout.endOf(index + count - 1);
+            if (end - first > Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException("Encoded bytes are too sparse");
+            }
+            int length = (int) (end - first);
+            // bytes of period which is partly read by previous call
+            int kept = (int) Math.max(0, Math.min(position, end) - first);
+            if (kept > 0 && (buffer == null || first < bufferOffset)) {
+                throw new IllegalStateException("Encoded bytes overlap headers");
+            }
+            ByteBuffer target = buffer != null && buffer.capacity() >= length ? buffer
+                    : ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+            if (kept > 0) {
+                System.arraycopy(buffer.array(), (int) (first - bufferOffset), target.array(), 0, kept);
+            }
+            buffer = target;
+            bufferOffset = first;
+            if (kept < length) {
+                Streams.skip(source, first + kept - position, buffer);
+                buffer.clear();
+                buffer.position(kept);
+                buffer.limit(length);
+                if (Streams.fill(source, buffer) < length - kept) {
+                    throw new EOFException("Bitmap ends before encoded text");
+                }
+                position = end;
+            }
+            layout.extract(buffer, bufferOffset, values, 0, count, index);
+            index += count;
+        }
+    }
+}
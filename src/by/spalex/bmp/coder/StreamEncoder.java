@@ -0,0 +1,218 @@
+package by.spalex.bmp.coder;
+
+import by.spalex.bmp.bitmap.Bitmap;
+import by.spalex.bmp.bitmap.PixelCursor;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Class performs encoding of text while bitmap file is copied from one channel to another.
+ * Headers are copied unchanged, image data are changed by fixed-size blocks, so memory usage
+ * doesn't depend on sizes of bitmap and text. Writing of a block overlaps reading of the next one
+ */
+public class StreamEncoder {
+
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 16;
+
+    private final int blockSize;
+
+    /**
+     * Create StreamEncoder instance with default block size
+     */
+    public StreamEncoder() {
+        this(DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Create StreamEncoder instance
+     * @param blockSize approximate size of image data block in bytes
+     */
+    public StreamEncoder(int blockSize) {
+        if (blockSize < 16) {
+            throw new IllegalArgumentException("Invalid block size " + blockSize);
+        }
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Encode text into bitmap
+     * @param source     channel with source bitmap file
+     * @param text       channel with text data
+     * @param textLength count of bytes which will be read from text channel
+     * @param target     channel for encoded bitmap file
+     * @return bitmap headers of source file
+     * @throws IOException              in case of read or write error, or if text channel ends before textLength bytes
+     * @throws IllegalArgumentException if bitmap headers are invalid or text exceeds encode capacity
+     * @throws IllegalStateException    if bitmap format is not supported
+     */
+    public Bitmap encode(ReadableByteChannel source, ReadableByteChannel text, long textLength,
+                         WritableByteChannel target) throws IOException {
+        ByteBuffer headers = Streams.readHeaders(source);
+        Bitmap bitmap = Bitmap.fromHeaders(headers, Streams.getFileSize(headers));
+        EncodePattern pattern = EncodePattern.of(bitmap.getBitmapHeader());
+        PixelCursor cursor = pattern.cursor(bitmap);
+        if (textLength < 0 || textLength > Encoder.MAX_SIZE
+                || FrameHeader.length(pattern, null) + textLength > cursor.getSampleCount()) {
+            throw new IllegalArgumentException("Text size " + textLength + " exceeds encode capacity "
+                    + bitmap.getEncodeCapacity());
+        }
+        byte[] sizeBytes = new byte[FrameHeader.length(pattern, null)];
+        FrameHeader.write(sizeBytes, pattern, null, (int) textLength);
+        EncodedStream encoded = new EncodedStream(sizeBytes, text, textLength);
+
+        int stride = pattern.getStride();
+        int block = Math.max(1, blockSize / stride) * stride;
+        ByteBuffer current = ByteBuffer.allocate(block).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer next = ByteBuffer.allocate(block).order(ByteOrder.LITTLE_ENDIAN);
+        byte[] values = new byte[block / stride + 1];
+
+        long position = 0;
+        ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "bitmap-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            Future<?> pending = null;
+            // headers are the first block, they hold encoded bytes for bitmaps with color palette
+            ByteBuffer buffer = headers;
+            boolean last = false;
+            do {
+                int done = embed(pattern, buffer, position, cursor, encoded, values, last);
+                await(pending);
+                ByteBuffer other = buffer == current ? next : current;
+                other.clear();
+                // encoded byte cut by the end of block is embedded together with the next block
+                ByteBuffer tail = buffer.duplicate();
+                tail.position(done);
+                other.put(tail);
+                buffer.limit(done);
+                pending = write(writer, buffer, target);
+                position += done;
+                last = Streams.fill(source, other) == 0;
+                other.flip();
+                buffer = other;
+            } while (buffer.hasRemaining());
+            await(pending);
+        } finally {
+            writer.shutdownNow();
+        }
+        if (encoded.remaining() > 0) {
+            throw new EOFException("Bitmap ends before text is encoded");
+        }
+        return bitmap;
+    }
+
+    /**
+     * Embeds encoded bytes lying in block
+     * @param pattern  encoding pattern
+     * @param block    flipped buffer with file bytes
+     * @param position offset of block from begin of file
+     * @param cursor   cursor at sample of next encoded byte
+     * @param encoded  stream of encoded bytes
+     * @param values   reusable array for encoded bytes of block
+     * @param last     true if block is the end of file
+     * @return count of bytes at begin of block which are not changed anymore, the rest holds encoded byte
+     * cut by the end of block
+     * @throws IOException in case of text read error
+     */
+    private static int embed(EncodePattern pattern, ByteBuffer block, long position, PixelCursor cursor,
+                             EncodedStream encoded, byte[] values, boolean last) throws IOException {
+        long end = position + block.limit();
+        int stride = pattern.getStride();
+        while (encoded.remaining() > 0 && cursor.getRun() > 0) {
+            long first = cursor.getOffset() + pattern.getShift();
+            if (first + pattern.getSpan() > end) {
+                return last || first >= end ? block.limit() : (int) (first - position);
+            }
+            long fitting = Math.min(cursor.getRun(), (end - pattern.getSpan() - first) / stride + 1);
+            int count = encoded.next(values, (int) Math.min(values.length, fitting));
+            pattern.embed(block, (int) (first - position), values, 0, count);
+            cursor.advance(count);
+        }
+        return block.limit();
+    }
+
+    private static Future<?> write(ExecutorService writer, ByteBuffer buffer, WritableByteChannel target) {
+        return writer.submit(() -> {
+            Streams.write(target, buffer);
+            return null;
+        });
+    }
+
+    private static void await(Future<?> pending) throws IOException {
+        if (pending == null) {
+            return;
+        }
+        try {
+            pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Encoding is interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Sequence of encoded bytes: frame header followed by text read from channel by blocks
+     */
+    private static class EncodedStream {
+        private final byte[] sizeBytes;
+        private final ReadableByteChannel text;
+        private final long length;
+        private final ByteBuffer buffer;
+        private long index = 0;
+
+        private EncodedStream(byte[] sizeBytes, ReadableByteChannel text, long textLength) {
+            this.sizeBytes = sizeBytes;
+            this.text = text;
+            this.length = sizeBytes.length + textLength;
+            buffer = ByteBuffer.allocate(DEFAULT_BLOCK_SIZE);
+            buffer.flip();
+        }
+
+        private long remaining() {
+            return length - index;
+        }
+
+        /**
+         * Copies next encoded bytes to array
+         * @param values destination array
+         * @param count  maximum count of bytes
+         * @return count of copied bytes
+         */
+        private int next(byte[] values, int count) throws IOException {
+            count = (int) Math.min(count, remaining());
+            for (int i = 0; i < count; i++, index++) {
+                if (index < sizeBytes.length) {
+                    values[i] = sizeBytes[(int) index];
+                    continue;
+                }
+                if (!buffer.hasRemaining()) {
+                    buffer.clear();
+                    buffer.limit((int) Math.min(buffer.capacity(), remaining()));
+                    if (Streams.fill(text, buffer) == 0) {
+                        throw new EOFException("Text ends before " + (length - sizeBytes.length) + " bytes");
+                    }
+                    buffer.flip();
+                }
+                values[i] = buffer.get();
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package by.spalex.bmp.coder;
+
+import by.spalex.bmp.bitmap.BitmapData;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Utility methods for reading and writing bitmap files through channels
+ */
+enum Streams {
+    ;
+    private static final int HEADER_SIZE = 14;
+
+    /**
+     * Reads headers and palette, i.e. everything before image data
+     * @param source channel with bitmap file positioned at begin of file
+     * @return flipped little-endian buffer with headers
+     * @throws IOException              in case of read error
+     * @throws IllegalArgumentException if header is invalid
+     */
+    static ByteBuffer readHeaders(ReadableByteChannel source) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        if (fill(source, header) < HEADER_SIZE) {
+            throw new IllegalArgumentException("Invalid header size " + header.position());
+        }
+        long offset = header.getInt(10) & 0xffffffffL;
+        if (offset < HEADER_SIZE + 4 || offset > BitmapData.MAX_VIEW) {
+            throw new IllegalArgumentException("Invalid offset " + offset);
+        }
+        ByteBuffer headers = ByteBuffer.allocate((int) offset).order(ByteOrder.LITTLE_ENDIAN);
+        header.flip();
+        headers.put(header);
+        fill(source, headers);
+        if (headers.hasRemaining()) {
+            throw new EOFException("Bitmap ends before image data");
+        }
+        headers.flip();
+        return headers;
+    }
+
+    /**
+     * @param headers buffer with headers of bitmap file
+     * @return size of file declared in header
+     */
+    static long getFileSize(ByteBuffer headers) {
+        return headers.getInt(2) & 0xffffffffL;
+    }
+
+    /**
+     * Reads from channel until buffer is full or channel ends
+     * @param channel source channel
+     * @param buffer  destination buffer
+     * @return count of read bytes
+     * @throws IOException in case of read error
+     */
+    static int fill(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        int count = 0;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer);
+            if (read < 0) {
+                break;
+            }
+            count += read;
+        }
+        return count;
+    }
+
+    /**
+     * Skips bytes of channel. Seekable channels are repositioned, others are read
+     * @param channel source channel
+     * @param count   count of bytes to skip
+     * @param scratch buffer for skipped bytes
+     * @throws IOException in case of read error or if channel ends
+     */
+    static void skip(ReadableByteChannel channel, long count, ByteBuffer scratch) throws IOException {
+        if (channel instanceof SeekableByteChannel) {
+            SeekableByteChannel seekable = (SeekableByteChannel) channel;
+            seekable.position(seekable.position() + count);
+            return;
+        }
+        while (count > 0) {
+            scratch.clear();
+            scratch.limit((int) Math.min(scratch.capacity(), count));
+            int read = fill(channel, scratch);
+            if (read == 0) {
+                throw new EOFException("Bitmap ends before encoded text");
+            }
+            count -= read;
+        }
+    }
+
+    /**
+     * Writes all remaining bytes of buffer
+     * @param channel target channel
+     * @param buffer  source buffer
+     * @throws IOException in case of write error
+     */
+    static void write(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
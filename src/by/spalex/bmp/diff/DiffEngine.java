@@ -0,0 +1,235 @@
+package by.spalex.bmp.diff;
+
+import by.spalex.bmp.bitmap.Bitmap;
+import by.spalex.bmp.bitmap.BitmapData;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Finds ranges of differing bytes of two files. Files are split into chunks which are compared in parallel
+ * by common {@link ForkJoinPool}, equal bytes are skipped by whole 8-byte words.
+ * Bytes present in one file only are different
+ */
+public final class DiffEngine {
+
+    /**
+     * Default count of file bytes compared by one task
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+    private final int chunkSize;
+
+    /**
+     * Create DiffEngine instance with default chunk size
+     */
+    public DiffEngine() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Create DiffEngine instance
+     * @param chunkSize count of file bytes compared by one task
+     * @throws IllegalArgumentException if chunk size is less than 8 or exceeds {@link BitmapData#MAX_VIEW}
+     */
+    public DiffEngine(int chunkSize) {
+        if (chunkSize < 8 || chunkSize > BitmapData.MAX_VIEW) {
+            throw new IllegalArgumentException("Invalid chunk size " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Compares bitmap with another file, usually its encoded copy
+     * @param original bitmap which headers define regions of differences
+     * @param compared content of compared file
+     * @return index of differing ranges
+     * @throws IllegalArgumentException if files are too large for count of chunks
+     */
+    public DiffIndex compare(Bitmap original, BitmapData compared) {
+        BitmapData data = original.getData();
+        long size = Math.max(data.size(), compared.size());
+        long chunkCount = (size + chunkSize - 1) / chunkSize;
+        if (chunkCount > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Files are too large for chunk size " + chunkSize);
+        }
+        // palette lies between headers and image data, broken files can't make regions overlap
+        long imageOffset = Math.max(0, original.getHeader().getOffset());
+        long[] bounds = {Math.min(original.getPaletteOffset(), imageOffset), imageOffset};
+        Chunk[] chunks = new Chunk[(int) chunkCount];
+        ScanTask task = new ScanTask(data, compared, bounds, chunks, 0, chunks.length);
+        if (chunks.length <= 1) {
+            task.compute();
+        } else {
+            ForkJoinPool.commonPool().invoke(task);
+        }
+
+        byte[][] ranges = new byte[chunks.length][];
+        long rangeCount = 0;
+        long[] regionBytes = new long[Region.values().length];
+        for (int i = 0; i < chunks.length; i++) {
+            Chunk chunk = chunks[i];
+            ranges[i] = chunk.toArray();
+            rangeCount += chunk.count;
+            for (int region = 0; region < regionBytes.length; region++) {
+                regionBytes[region] += chunk.regionBytes[region];
+            }
+            // range crossing chunk boundary is split in two, but it is counted once
+            if (i > 0 && chunk.count > 0 && chunks[i - 1].count > 0 && chunk.firstStart == chunk.start
+                    && chunks[i - 1].lastEnd == chunk.start) {
+                rangeCount--;
+            }
+        }
+        return new DiffIndex(data.size(), compared.size(), chunkSize, bounds, ranges, rangeCount, regionBytes);
+    }
+
+    private Chunk scan(BitmapData original, BitmapData compared, long[] bounds, int index) {
+        long start = (long) index * chunkSize;
+        long end = Math.min(start + chunkSize, Math.max(original.size(), compared.size()));
+        long common = Math.min(end, Math.min(original.size(), compared.size()));
+        Chunk chunk = new Chunk(start, bounds);
+        if (start < common) {
+            ByteBuffer x = original.view(start, (int) (common - start));
+            ByteBuffer y = compared.view(start, (int) (common - start));
+            int length = x.limit();
+            int i = 0;
+            while (i < length) {
+                while (i + 8 <= length && x.getLong(i) == y.getLong(i)) {
+                    i += 8;
+                }
+                if (i + 8 <= length) {
+                    // views are little-endian, so the lowest differing bits belong to the first differing byte
+                    i += Long.numberOfTrailingZeros(x.getLong(i) ^ y.getLong(i)) >>> 3;
+                } else {
+                    while (i < length && x.get(i) == y.get(i)) {
+                        i++;
+                    }
+                    if (i == length) {
+                        break;
+                    }
+                }
+                int from = i;
+                while (i < length && x.get(i) != y.get(i)) {
+                    i++;
+                }
+                chunk.add(start + from, start + i);
+            }
+        }
+        if (common < end) {
+            chunk.add(Math.max(start, common), end);
+        }
+        return chunk;
+    }
+
+    /**
+     * Differing ranges of one chunk. Range is stored as two unsigned LEB128 numbers: distance from the end
+     * of previous range (or chunk start) and length. Ranges of encoded bitmaps are short and close,
+     * so most of them take 2 bytes
+     */
+    private static final class Chunk {
+        private final long start;
+        private final long[] bounds;
+        private final long[] regionBytes = new long[Region.values().length];
+        private byte[] bytes = new byte[16];
+        private int length;
+        private int count;
+        private long firstStart;
+        // end of written range
+        private long written;
+        // the last range is written when the next one starts, so it may be extended
+        private long lastStart;
+        private long lastEnd;
+
+        private Chunk(long start, long[] bounds) {
+            this.start = start;
+            this.bounds = bounds;
+            written = start;
+        }
+
+        private void add(long from, long to) {
+            if (count > 0 && from == lastEnd) {
+                lastEnd = to;
+            } else {
+                if (count == 0) {
+                    firstStart = from;
+                } else {
+                    writeLast();
+                }
+                lastStart = from;
+                lastEnd = to;
+                count++;
+            }
+            long regionStart = 0;
+            for (int region = 0; region < regionBytes.length; region++) {
+                long regionEnd = region < bounds.length ? bounds[region] : Long.MAX_VALUE;
+                long overlap = Math.min(to, regionEnd) - Math.max(from, regionStart);
+                if (overlap > 0) {
+                    regionBytes[region] += overlap;
+                }
+                regionStart = Math.max(regionStart, regionEnd);
+            }
+        }
+
+        private void writeLast() {
+            write(lastStart - written);
+            write(lastEnd - lastStart);
+            written = lastEnd;
+        }
+
+        private void write(long value) {
+            if (length + 10 > bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            while ((value & ~0x7fL) != 0) {
+                bytes[length++] = (byte) (value & 0x7f | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        private byte[] toArray() {
+            if (count > 0) {
+                writeLast();
+            }
+            return Arrays.copyOf(bytes, length);
+        }
+    }
+
+    /**
+     * Fork/join task scanning range of chunks, range is split in halves down to single chunks
+     */
+    private final class ScanTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final BitmapData original;
+        private final BitmapData compared;
+        private final long[] bounds;
+        private final Chunk[] chunks;
+        private final int from;
+        private final int to;
+
+        private ScanTask(BitmapData original, BitmapData compared, long[] bounds, Chunk[] chunks, int from, int to) {
+            this.original = original;
+            this.compared = compared;
+            this.bounds = bounds;
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                for (int index = from; index < to; index++) {
+                    chunks[index] = scan(original, compared, bounds, index);
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ScanTask(original, compared, bounds, chunks, from, middle),
+                        new ScanTask(original, compared, bounds, chunks, middle, to));
+            }
+        }
+    }
+}
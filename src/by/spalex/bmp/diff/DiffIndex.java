@@ -0,0 +1,204 @@
+package by.spalex.bmp.diff;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+/**
+ * Compact index of differing byte ranges of two files built by {@link DiffEngine}.
+ * Ranges are kept encoded per chunk of files, so they are decoded only when they are walked.
+ * Index is immutable and may be used by several threads
+ */
+public final class DiffIndex {
+
+    /**
+     * Consumer of differing ranges
+     */
+    public interface RangeConsumer {
+        /**
+         * @param start offset of first differing byte
+         * @param end   offset after last differing byte
+         * @throws IOException in case of output error
+         */
+        void accept(long start, long end) throws IOException;
+    }
+
+    private final long originalSize;
+    private final long comparedSize;
+    private final int chunkSize;
+    // ends of header and palette regions
+    private final long[] bounds;
+    private final byte[][] ranges;
+    private final long rangeCount;
+    private final long[] regionBytes;
+
+    DiffIndex(long originalSize, long comparedSize, int chunkSize, long[] bounds, byte[][] ranges, long rangeCount,
+              long[] regionBytes) {
+        this.originalSize = originalSize;
+        this.comparedSize = comparedSize;
+        this.chunkSize = chunkSize;
+        this.bounds = bounds;
+        this.ranges = ranges;
+        this.rangeCount = rangeCount;
+        this.regionBytes = regionBytes;
+    }
+
+    /**
+     * @return size of original file
+     */
+    public long getOriginalSize() {
+        return originalSize;
+    }
+
+    /**
+     * @return size of compared file
+     */
+    public long getComparedSize() {
+        return comparedSize;
+    }
+
+    /**
+     * @return true if files are equal
+     */
+    public boolean isEmpty() {
+        return rangeCount == 0;
+    }
+
+    /**
+     * @return count of differing ranges, neighbouring bytes of range differ
+     */
+    public long getRangeCount() {
+        return rangeCount;
+    }
+
+    /**
+     * @return count of differing bytes
+     */
+    public long getDifferentBytes() {
+        long total = 0;
+        for (long bytes : regionBytes) {
+            total += bytes;
+        }
+        return total;
+    }
+
+    /**
+     * @param region region of file
+     * @return count of differing bytes in region
+     */
+    public long getDifferentBytes(Region region) {
+        return regionBytes[region.ordinal()];
+    }
+
+    /**
+     * @param position offset from begin of file
+     * @return region of original file containing position
+     */
+    public Region regionOf(long position) {
+        if (position < bounds[0]) {
+            return Region.HEADER;
+        }
+        return position < bounds[1] ? Region.PALETTE : Region.PIXELS;
+    }
+
+    /**
+     * Finds the nearest difference, only chunks before it are decoded
+     * @param position offset from begin of file
+     * @return offset of first differing byte not before position, -1 if there is none
+     */
+    public long next(long position) {
+        position = Math.max(0, position);
+        for (int chunk = (int) Math.min(position / chunkSize, ranges.length); chunk < ranges.length; chunk++) {
+            RangeReader reader = new RangeReader(chunk);
+            while (reader.next()) {
+                if (reader.end > position) {
+                    return Math.max(reader.start, position);
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Walks differing ranges in file order
+     * @param consumer consumer of ranges
+     * @throws IOException if consumer fails
+     */
+    public void forEach(RangeConsumer consumer) throws IOException {
+        long start = -1;
+        long end = -1;
+        for (int chunk = 0; chunk < ranges.length; chunk++) {
+            RangeReader reader = new RangeReader(chunk);
+            while (reader.next()) {
+                // range crossing chunk boundary is joined back
+                if (reader.start == end) {
+                    end = reader.end;
+                    continue;
+                }
+                if (start >= 0) {
+                    consumer.accept(start, end);
+                }
+                start = reader.start;
+                end = reader.end;
+            }
+        }
+        if (start >= 0) {
+            consumer.accept(start, end);
+        }
+    }
+
+    /**
+     * Writes text report: sizes of files, counts of differing bytes per region and line per differing range
+     * with its offset, length and region. Ranges are written as they are decoded, so report of any size
+     * takes no memory
+     * @param writer output of report
+     * @throws IOException in case of output error
+     */
+    public void writeReport(Writer writer) throws IOException {
+        writer.write(String.format(Locale.ROOT, "original %d bytes, compared %d bytes%n", originalSize, comparedSize));
+        writer.write(String.format(Locale.ROOT, "%d differing bytes in %d ranges: header %d, palette %d, pixels %d%n",
+                getDifferentBytes(), rangeCount, getDifferentBytes(Region.HEADER),
+                getDifferentBytes(Region.PALETTE), getDifferentBytes(Region.PIXELS)));
+        forEach((start, end) -> writer.write(String.format(Locale.ROOT, "%08X %d %s%n", start, end - start,
+                regionOf(start).name().toLowerCase(Locale.ROOT))));
+        writer.flush();
+    }
+
+    /**
+     * Decoder of ranges of one chunk
+     */
+    private final class RangeReader {
+        private final byte[] bytes;
+        private int index;
+        private long start;
+        private long end;
+
+        private RangeReader(int chunk) {
+            bytes = ranges[chunk];
+            end = (long) chunk * chunkSize;
+        }
+
+        /**
+         * @return true if the next range is decoded
+         */
+        private boolean next() {
+            if (index >= bytes.length) {
+                return false;
+            }
+            start = end + read();
+            end = start + read();
+            return true;
+        }
+
+        private long read() {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = bytes[index++];
+                value |= (long) (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+    }
+}
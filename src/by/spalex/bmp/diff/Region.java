@@ -0,0 +1,19 @@
+package by.spalex.bmp.diff;
+
+/**
+ * Parts of bitmap file which differences are counted separately
+ */
+public enum Region {
+    /**
+     * File header, bitmap header and color masks
+     */
+    HEADER,
+    /**
+     * Color palette and gap between it and image data
+     */
+    PALETTE,
+    /**
+     * Image data and everything after it
+     */
+    PIXELS
+}
@@ -0,0 +1,80 @@
+package by.spalex.bmp.shard;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Header of shard of payload split over several carriers. It is encoded in front of part of payload
+ * and tells which payload the part belongs to and where it lies
+ */
+public final class Manifest {
+
+    /**
+     * Count of bytes taken by manifest in encoded text
+     */
+    public static final int SIZE = 20;
+
+    // "BMSH" marks encoded text which is a shard
+    private static final int MAGIC = 0x424d5348;
+
+    private final long payloadId;
+    private final int sequence;
+    private final int total;
+
+    /**
+     * Create Manifest instance
+     * @param payloadId identifier shared by all shards of payload
+     * @param sequence  index of shard, shards are joined by ascending index
+     * @param total     count of shards of payload
+     * @throws IllegalArgumentException if sequence doesn't lie in [0, total)
+     */
+    public Manifest(long payloadId, int sequence, int total) {
+        if (total < 1 || sequence < 0 || sequence >= total) {
+            throw new IllegalArgumentException("Invalid shard " + sequence + " of " + total);
+        }
+        this.payloadId = payloadId;
+        this.sequence = sequence;
+        this.total = total;
+    }
+
+    /**
+     * Reads manifest from begin of decoded text
+     * @param text decoded text
+     * @return manifest, null if text is not a shard
+     */
+    public static Manifest read(byte[] text) {
+        if (text.length < SIZE) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(text);
+        if (buffer.getInt() != MAGIC) {
+            return null;
+        }
+        long payloadId = buffer.getLong();
+        int sequence = buffer.getInt();
+        int total = buffer.getInt();
+        if (total < 1 || sequence < 0 || sequence >= total) {
+            return null;
+        }
+        return new Manifest(payloadId, sequence, total);
+    }
+
+    /**
+     * Writes manifest to begin of array
+     * @param bytes destination array, at least {@link #SIZE} long
+     */
+    public void write(byte[] bytes) {
+        ByteBuffer.wrap(bytes).putInt(MAGIC).putLong(payloadId).putInt(sequence).putInt(total);
+    }
+
+    public long getPayloadId() {
+        return payloadId;
+    }
+
+    public int getSequence() {
+        return sequence;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+}
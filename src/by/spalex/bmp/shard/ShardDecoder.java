@@ -0,0 +1,127 @@
+package by.spalex.bmp.shard;
+
+import by.spalex.bmp.bitmap.Bitmap;
+import by.spalex.bmp.coder.Decoder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reassembles payload from shards written by {@link ShardEncoder}. Shards are accepted in any order and from
+ * any thread, payload is joined once all of them are added
+ */
+public class ShardDecoder {
+
+    private long payloadId;
+    // parts of payload by sequence, null until shard is added
+    private byte[][] parts;
+    private int added;
+
+    /**
+     * Decodes shards of bitmaps concurrently and joins them
+     * @param shards  paths of encoded bitmaps in any order
+     * @param threads maximum count of bitmaps decoded at once
+     * @return payload
+     * @throws IllegalArgumentException if threads is not positive
+     * @throws ShardException           if bitmap is not a shard, shards belong to different payloads
+     *                                  or some shards are missing
+     * @throws IOException              in case of read error
+     */
+    public static byte[] decode(List<Path> shards, int threads) throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Invalid count of threads " + threads);
+        }
+        ShardDecoder decoder = new ShardDecoder();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, shards.size())));
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (Path shard : shards) {
+                futures.add(pool.submit(() -> {
+                    decoder.add(decode(shard));
+                    return null;
+                }));
+            }
+            ShardTasks.await(futures, "Decoding");
+        } finally {
+            pool.shutdownNow();
+        }
+        return decoder.getPayload();
+    }
+
+    private static byte[] decode(Path shard) throws IOException {
+        try {
+            return new Decoder(Bitmap.open(shard)).decodeBytesParallel();
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            throw new ShardException("Bitmap " + shard + " is not a shard: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Adds decoded text of one shard
+     * @param text text decoded from shard bitmap
+     * @throws ShardException if text is not a shard, belongs to other payload or is added twice
+     */
+    public synchronized void add(byte[] text) throws ShardException {
+        Manifest manifest = Manifest.read(text);
+        if (manifest == null) {
+            throw new ShardException("Text is not a shard");
+        }
+        if (parts == null) {
+            payloadId = manifest.getPayloadId();
+            parts = new byte[manifest.getTotal()][];
+        } else if (manifest.getPayloadId() != payloadId || manifest.getTotal() != parts.length) {
+            throw new ShardException("Shard " + manifest.getSequence() + " belongs to other payload");
+        }
+        if (parts[manifest.getSequence()] != null) {
+            throw new ShardException("Shard " + manifest.getSequence() + " is added twice");
+        }
+        byte[] part = new byte[text.length - Manifest.SIZE];
+        System.arraycopy(text, Manifest.SIZE, part, 0, part.length);
+        parts[manifest.getSequence()] = part;
+        added++;
+    }
+
+    /**
+     * @return true if all shards of payload are added
+     */
+    public synchronized boolean isComplete() {
+        return parts != null && added == parts.length;
+    }
+
+    /**
+     * @return count of shards of payload, 0 if no shard is added yet
+     */
+    public synchronized int getTotal() {
+        return parts == null ? 0 : parts.length;
+    }
+
+    /**
+     * Joins parts of payload in sequence order
+     * @return payload
+     * @throws ShardException if some shards are missing or payload doesn't fit single array
+     */
+    public synchronized byte[] getPayload() throws ShardException {
+        if (!isComplete()) {
+            throw new ShardException("Shards added " + added + " of " + getTotal());
+        }
+        long size = 0;
+        for (byte[] part : parts) {
+            size += part.length;
+        }
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new ShardException("Payload is too large for single array " + size);
+        }
+        byte[] payload = new byte[(int) size];
+        int offset = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, payload, offset, part.length);
+            offset += part.length;
+        }
+        return payload;
+    }
+}
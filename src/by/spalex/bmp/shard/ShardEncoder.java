@@ -0,0 +1,156 @@
+package by.spalex.bmp.shard;
+
+import by.spalex.bmp.bitmap.Bitmap;
+import by.spalex.bmp.coder.Encoder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splits payload larger than one carrier over several carrier bitmaps. Every carrier takes as much of payload
+ * as it can hold after {@link Manifest}, carriers are filled in the given order and the ones left empty are
+ * not written. Shards are encoded and written concurrently, one task per carrier
+ */
+public class ShardEncoder {
+
+    private final int threads;
+
+    /**
+     * Create ShardEncoder instance with one thread per available processor
+     */
+    public ShardEncoder() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create ShardEncoder instance
+     * @param threads maximum count of shards encoded at once
+     * @throws IllegalArgumentException if threads is not positive
+     */
+    public ShardEncoder(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Invalid count of threads " + threads);
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Encodes payload into carriers. Nothing is left in targets if encoding of any shard fails
+     * @param carriers paths of carrier bitmaps
+     * @param payload  payload data
+     * @param targets  paths of encoded bitmaps, one per carrier
+     * @return count of written shards
+     * @throws IllegalArgumentException if counts of carriers and targets differ or target is given twice
+     * @throws ShardException           if carrier is not supported or payload exceeds total capacity of carriers
+     * @throws IOException              in case of read or write error
+     */
+    public int encode(List<Path> carriers, byte[] payload, List<Path> targets) throws IOException {
+        if (carriers.size() != targets.size()) {
+            throw new IllegalArgumentException("Count of targets " + targets.size()
+                    + " differs from count of carriers " + carriers.size());
+        }
+        // shards written to the same file concurrently overwrite each other
+        Set<Path> distinct = new HashSet<>();
+        for (Path target : targets) {
+            if (!distinct.add(target.toAbsolutePath().normalize())) {
+                throw new IllegalArgumentException("Target " + target + " is given for several carriers");
+            }
+        }
+        // shards are planned before encoding starts, so nothing is written if carriers are too small
+        List<Bitmap> bitmaps = new ArrayList<>();
+        List<Path> shardTargets = new ArrayList<>();
+        List<Integer> lengths = new ArrayList<>();
+        int offset = 0;
+        for (int i = 0; i < carriers.size() && (offset < payload.length || bitmaps.isEmpty()); i++) {
+            Bitmap bitmap = open(carriers.get(i));
+            int length = (int) Math.min(payload.length - offset, shardCapacity(bitmap));
+            if (length > 0 || payload.length == 0 && bitmap.getEncodeCapacity() >= Manifest.SIZE) {
+                bitmaps.add(bitmap);
+                shardTargets.add(targets.get(i));
+                lengths.add(length);
+                offset += length;
+            }
+        }
+        if (offset < payload.length || bitmaps.isEmpty()) {
+            throw new ShardException("Payload size " + payload.length + " exceeds capacity of carriers " + offset);
+        }
+
+        long payloadId = ThreadLocalRandom.current().nextLong();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, bitmaps.size()));
+        List<Future<?>> futures = new ArrayList<>();
+        Queue<Path> written = new ConcurrentLinkedQueue<>();
+        try {
+            offset = 0;
+            for (int i = 0; i < bitmaps.size(); i++) {
+                Manifest manifest = new Manifest(payloadId, i, bitmaps.size());
+                Bitmap bitmap = bitmaps.get(i);
+                Path target = shardTargets.get(i);
+                int from = offset;
+                int length = lengths.get(i);
+                futures.add(pool.submit(() -> {
+                    byte[] shard = new byte[Manifest.SIZE + length];
+                    manifest.write(shard);
+                    System.arraycopy(payload, from, shard, Manifest.SIZE, length);
+                    new Encoder(bitmap).encodeRegion(shard).writeTo(target);
+                    written.add(target);
+                    return null;
+                }));
+                offset += length;
+            }
+            ShardTasks.await(futures, "Encoding");
+        } catch (IOException | RuntimeException e) {
+            // shards without the failed one are useless, targets are replaced atomically,
+            // so only written shards are removed
+            for (Future<?> future : futures) {
+                future.cancel(false);
+            }
+            pool.shutdown();
+            awaitTermination(pool);
+            for (Path target : written) {
+                Files.deleteIfExists(target);
+            }
+            throw e;
+        } finally {
+            pool.shutdown();
+        }
+        return bitmaps.size();
+    }
+
+    private static Bitmap open(Path carrier) throws IOException {
+        try {
+            return Bitmap.open(carrier);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            throw new ShardException("Unsupported carrier " + carrier + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return count of payload bytes which carrier holds after manifest
+     */
+    public static long shardCapacity(Bitmap bitmap) {
+        // text is encoded from single array
+        return Math.max(0, Math.min(bitmap.getEncodeCapacity(), Integer.MAX_VALUE - 8) - Manifest.SIZE);
+    }
+
+    private static void awaitTermination(ExecutorService pool) {
+        try {
+            while (!pool.awaitTermination(1, TimeUnit.MINUTES)) {
+                // wait for running shards
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package by.spalex.bmp.shard;
+
+import java.io.IOException;
+
+/**
+ * Signals that shards can't be written or joined because of their data: payload doesn't fit carriers,
+ * bitmap is not a shard, shards belong to different payloads or some of them are missing
+ */
+public class ShardException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Create ShardException instance
+     * @param message detail message
+     */
+    public ShardException(String message) {
+        super(message);
+    }
+
+    /**
+     * Create ShardException instance
+     * @param message detail message
+     * @param cause   cause of failure
+     */
+    public ShardException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,41 @@
+package by.spalex.bmp.shard;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Waiting for tasks of shards submitted to thread pool
+ */
+final class ShardTasks {
+
+    private ShardTasks() {
+    }
+
+    /**
+     * Waits for all tasks in submission order and rethrows failure of the first failed one as is
+     * @param futures tasks of shards
+     * @param action  name of action for message of interruption
+     * @throws IOException in case of task failure or interruption
+     */
+    static void await(List<? extends Future<?>> futures, String action) throws IOException {
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(action + " of shards is interrupted", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw (Error) cause;
+            }
+        }
+    }
+}
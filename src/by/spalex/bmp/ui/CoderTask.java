@@ -0,0 +1,71 @@
+package by.spalex.bmp.ui;
+
+import by.spalex.bmp.coder.Progress;
+import javafx.concurrent.Task;
+
+import java.util.function.Consumer;
+
+/**
+ * Task running long operation out of JavaFX application thread. Task itself is the progress listener
+ * of operation, so progress is shown by {@link #progressProperty()} and {@link #cancel()} stops operation
+ *
+ * @param <V> type of result
+ */
+public class CoderTask<V> extends Task<V> implements Progress {
+
+    /**
+     * Operation performed by task
+     *
+     * @param <V> type of result
+     */
+    public interface Work<V> {
+        /**
+         * @param progress listener of operation progress
+         * @return result of operation
+         * @throws Exception in case of operation error
+         */
+        V run(Progress progress) throws Exception;
+    }
+
+    private final Work<V> work;
+
+    /**
+     * Create CoderTask instance
+     *
+     * @param work operation performed by task
+     */
+    public CoderTask(Work<V> work) {
+        this.work = work;
+    }
+
+    /**
+     * Create task and start it in daemon thread. Handlers are called in JavaFX application thread,
+     * none of them is called if task is cancelled
+     *
+     * @param work        operation performed by task
+     * @param onSucceeded handler of result
+     * @param onFailed    handler of error
+     * @param <V>         type of result
+     * @return started task
+     */
+    public static <V> CoderTask<V> start(Work<V> work, Consumer<V> onSucceeded, Consumer<Throwable> onFailed) {
+        CoderTask<V> task = new CoderTask<>(work);
+        task.setOnSucceeded(event -> onSucceeded.accept(task.getValue()));
+        task.setOnFailed(event -> onFailed.accept(task.getException()));
+        Thread thread = new Thread(task, "coder-task");
+        thread.setDaemon(true);
+        thread.start();
+        return task;
+    }
+
+    @Override
+    protected V call() throws Exception {
+        return work.run(this);
+    }
+
+    @Override
+    public void update(long done, long total) {
+        // updates are coalesced by Task, so frequent calls from several threads are cheap
+        updateProgress(done, total);
+    }
+}
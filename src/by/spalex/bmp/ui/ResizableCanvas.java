@@ -1,12 +1,92 @@
 package by.spalex.bmp.ui;
 
+import javafx.animation.PauseTransition;
+import javafx.application.Platform;
+import javafx.beans.InvalidationListener;
+import javafx.concurrent.Task;
 import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelReader;
+import javafx.scene.image.PixelWriter;
+import javafx.scene.image.WritableImage;
+import javafx.scene.image.WritablePixelFormat;
+import javafx.util.Duration;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
- * Extend Canvas for supporting resizing
+ * Extend Canvas for supporting resizing and drawing image preview.
+ * Image is drawn from the smallest of its downscaled levels which is still not smaller than canvas,
+ * levels are built in background. Repaints are delayed until resizing stops
  */
 public class ResizableCanvas extends Canvas {
 
+    // levels are halved while any side is larger
+    private static final int MIN_LEVEL_SIZE = 256;
+    private static final Duration REPAINT_DELAY = Duration.millis(80);
+
+    private final PauseTransition repaint = new PauseTransition(REPAINT_DELAY);
+    // full image followed by levels halved one after another, used by application thread only
+    private final List<Image> levels = new ArrayList<>();
+    private LevelBuilder builder;
+
+    public ResizableCanvas() {
+        repaint.setOnFinished(event -> paint());
+        // every size change restarts delay, so only the last size of burst is painted
+        InvalidationListener listener = observable -> repaint.playFromStart();
+        widthProperty().addListener(listener);
+        heightProperty().addListener(listener);
+    }
+
+    /**
+     * set image drawn over the whole canvas and start building its levels
+     *
+     * @param image image or null to clear canvas
+     */
+    public void setImage(Image image) {
+        if (builder != null) {
+            builder.cancel();
+            builder = null;
+        }
+        levels.clear();
+        if (image != null) {
+            levels.add(image);
+            builder = new LevelBuilder(image);
+            Thread thread = new Thread(builder, "preview-levels");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        repaint.stop();
+        paint();
+    }
+
+    private void paint() {
+        GraphicsContext gc = getGraphicsContext2D();
+        gc.clearRect(0, 0, getWidth(), getHeight());
+        Image level = selectLevel();
+        if (level != null) {
+            gc.drawImage(level, 0, 0, getWidth(), getHeight());
+        }
+    }
+
+    /**
+     * @return the smallest level not smaller than canvas, full image if canvas is larger than it
+     */
+    private Image selectLevel() {
+        Image selected = null;
+        for (Image level : levels) {
+            if (selected != null && (level.getWidth() < getWidth() || level.getHeight() < getHeight())) {
+                break;
+            }
+            selected = level;
+        }
+        return selected;
+    }
+
     @Override
     public double minHeight(double width) {
         return 64;
@@ -43,4 +123,84 @@ public class ResizableCanvas extends Canvas {
         super.setWidth(width);
         super.setHeight(height);
     }
+
+    /**
+     * Task halving image until it is small, every level is passed to application thread as soon as it is built
+     */
+    private final class LevelBuilder extends Task<Void> {
+
+        private final Image image;
+
+        private LevelBuilder(Image image) {
+            this.image = image;
+        }
+
+        @Override
+        protected Void call() {
+            Image level = image;
+            while (Math.max(level.getWidth(), level.getHeight()) > MIN_LEVEL_SIZE) {
+                level = halve(level);
+                if (level == null) {
+                    break;
+                }
+                Image built = level;
+                Platform.runLater(() -> addLevel(built));
+            }
+            return null;
+        }
+
+        private void addLevel(Image level) {
+            if (builder != this || isCancelled()) {
+                return;
+            }
+            Image selected = selectLevel();
+            levels.add(level);
+            if (selectLevel() != selected) {
+                paint();
+            }
+        }
+
+        /**
+         * Downscales image twice by averaging 2x2 blocks of pixels
+         *
+         * @return downscaled image, null if task is cancelled
+         */
+        private WritableImage halve(Image source) {
+            int width = (int) source.getWidth();
+            int height = (int) source.getHeight();
+            int halfWidth = (width + 1) / 2;
+            int halfHeight = (height + 1) / 2;
+            PixelReader reader = source.getPixelReader();
+            WritableImage target = new WritableImage(halfWidth, halfHeight);
+            PixelWriter writer = target.getPixelWriter();
+            WritablePixelFormat<IntBuffer> format = PixelFormat.getIntArgbInstance();
+            int[] top = new int[width];
+            int[] bottom = new int[width];
+            int[] row = new int[halfWidth];
+            for (int y = 0; y < halfHeight; y++) {
+                if (isCancelled()) {
+                    return null;
+                }
+                reader.getPixels(0, 2 * y, width, 1, format, top, 0, width);
+                reader.getPixels(0, Math.min(2 * y + 1, height - 1), width, 1, format, bottom, 0, width);
+                for (int x = 0; x < halfWidth; x++) {
+                    // odd last column and row are averaged with themselves
+                    int left = 2 * x;
+                    int right = Math.min(left + 1, width - 1);
+                    row[x] = average(top[left], top[right], bottom[left], bottom[right]);
+                }
+                writer.setPixels(0, y, halfWidth, 1, format, row, 0, halfWidth);
+            }
+            return target;
+        }
+    }
+
+    private static int average(int a, int b, int c, int d) {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            int sum = (a >>> shift & 0xff) + (b >>> shift & 0xff) + (c >>> shift & 0xff) + (d >>> shift & 0xff);
+            result |= (sum + 2) / 4 << shift;
+        }
+        return result;
+    }
 }
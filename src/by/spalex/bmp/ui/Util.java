@@ -1,10 +1,19 @@
 package by.spalex.bmp.ui;
 
+import by.spalex.bmp.bitmap.Bitmap;
+import by.spalex.bmp.bitmap.RasterDecoder;
+import by.spalex.bmp.coder.Progress;
 import javafx.scene.control.Alert;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelWriter;
+import javafx.scene.image.WritableImage;
 import javafx.stage.FileChooser;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.IntBuffer;
 import java.util.ResourceBundle;
+import java.util.concurrent.CancellationException;
 
 /**
  * Utility class
@@ -101,4 +110,30 @@ public enum Util {
         }
         return builder.toString();
     }
+
+    /**
+     * Decodes image data of bitmap straight into JavaFX image, rows are written as they are decoded.
+     * Image isn't shown yet, so it may be decoded out of JavaFX application thread
+     *
+     * @param bitmap   bitmap with file content
+     * @param progress listener of decoded rows
+     * @return image of bitmap
+     * @throws IOException           in case of malformed image data
+     * @throws CancellationException if listener cancels decoding
+     */
+    public static WritableImage toImage(Bitmap bitmap, Progress progress) throws IOException {
+        RasterDecoder decoder = new RasterDecoder(bitmap);
+        WritableImage image = new WritableImage(decoder.getWidth(), decoder.getHeight());
+        PixelWriter writer = image.getPixelWriter();
+        PixelFormat<IntBuffer> format = PixelFormat.getIntArgbInstance();
+        long[] rows = {0};
+        decoder.decode((y, argb) -> {
+            writer.setPixels(0, y, argb.length, 1, format, argb, 0, argb.length);
+            progress.update(++rows[0], decoder.getHeight());
+            if (progress.isCancelled()) {
+                throw new CancellationException("Image decoding is cancelled");
+            }
+        });
+        return image;
+    }
 }
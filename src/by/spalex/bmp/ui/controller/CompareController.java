@@ -1,10 +1,19 @@
 package by.spalex.bmp.ui.controller;
 
+import by.spalex.bmp.bitmap.Bitmap;
+import by.spalex.bmp.bitmap.BitmapData;
+import by.spalex.bmp.diff.DiffEngine;
+import by.spalex.bmp.diff.DiffIndex;
+import by.spalex.bmp.diff.Region;
+import by.spalex.bmp.ui.CoderTask;
 import by.spalex.bmp.ui.Util;
 import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableListBase;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.scene.Node;
+import javafx.scene.control.Button;
 import javafx.scene.control.Label;
 import javafx.scene.control.TableCell;
 import javafx.scene.control.TableColumn;
@@ -14,8 +23,8 @@ import javafx.util.Callback;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.file.Files;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 
 /**
  * Controller for file comparison view
@@ -27,8 +36,11 @@ public class CompareController extends Controller {
     private static final String[] COLORS = new String[]{"#CC7777", "#77CC77", "#7777CC", "#CCCC77", "#77CCCC", "#CC77CC",
             "#C0C0C0", "#CC7777", "#77CC77", "#7777CC", "#CCCC77", "#77CCCC", "#CC77CC", "#C0C0C0", "#CC7777", "#77CC77"};
 
-    // byte array of first compared file
-    private byte[] referenced = null;
+    // first compared file
+    private Bitmap referenced = null;
+    // index of differences, null while it is built
+    private DiffIndex differences;
+    private CoderTask<DiffIndex> diffing;
     @FXML
     private TableView<HexItem> view;
     @FXML
@@ -39,63 +51,88 @@ public class CompareController extends Controller {
     // header for second compared file
     @FXML
     private Label header2;
+    @FXML
+    private Button nextButton;
+    @FXML
+    private Label diffLabel;
 
     // name of first compared file
     private String referencedName;
 
     /**
      * set first compared file
-     * @param referenced file as byte array
+     * @param referenced bitmap, its content is not copied
      * @param referencedName name of file
      */
-    public void setReferenced(byte[] referenced, String referencedName) {
+    public void setReferenced(Bitmap referenced, String referencedName) {
         this.referenced = referenced;
         this.referencedName = referencedName;
     }
 
     /**
-     * performs loading second image for comparing
+     * performs loading second image for comparing. File is mapped into memory and rows of table
+     * are read from both files only when they are shown. Differences are indexed in background
      */
+    @SuppressWarnings("unchecked")
     public void loadImage(ActionEvent event) {
         Window window = ((Node) event.getSource()).getScene().getWindow();
         File file = Util.getFileChooser(Util.getString("open_image"), "bitmap", "*.bmp").showOpenDialog(window);
-        byte[] compared;
-        view.getItems().clear();
+        BitmapData compared;
+        view.setItems(FXCollections.emptyObservableList());
+        if (diffing != null) {
+            diffing.cancel();
+        }
+        differences = null;
+        nextButton.setDisable(true);
+        diffLabel.setText("");
         if (file != null && file.exists()) {
-            try {
-                compared = Files.readAllBytes(file.toPath());
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                compared = BitmapData.map(channel);
             } catch (IOException e) {
                 Util.showError(Util.getString("open_image"), e.toString());
                 return;
             }
-            int size = Math.max(referenced.length, compared.length);
 
             columnAddress.setText(Util.getString("address"));
+            columnAddress.setSortable(false);
             header1.setText(referencedName);
             header2.setText(file.getName());
+            // columns of previously compared file are replaced
+            view.getColumns().setAll(columnAddress);
             createColumns(true);
             TableColumn<HexItem, HexItem> tableColumn = new TableColumn<>();
             tableColumn.setText("<=>");
             tableColumn.setPrefWidth(25);
+            tableColumn.setSortable(false);
             view.getColumns().add(tableColumn);
             createColumns(false);
-            for (int i = 0; i < size; i = i + BYTE_PER_ROW) {
-                HexItem hexItem = new HexItem();
-                int rowSize = Math.min(BYTE_PER_ROW, referenced.length - i);
-                if (rowSize < 0) rowSize = 0;
-                hexItem.referencedRow = new byte[rowSize];
-                if (i < referenced.length) {
-                    System.arraycopy(referenced, i, hexItem.referencedRow, 0, hexItem.referencedRow.length);
-                }
-                rowSize = Math.min(BYTE_PER_ROW, compared.length - i);
-                if (rowSize < 0) rowSize = 0;
-                hexItem.comparedRow = new byte[rowSize];
-                if (i < compared.length) {
-                    System.arraycopy(compared, i, hexItem.comparedRow, 0, hexItem.comparedRow.length);
-                }
-                hexItem.address = ByteBuffer.allocate(4).putInt((i * BYTE_PER_ROW)).array();
-                view.getItems().add(hexItem);
-            }
+            view.setItems(new HexRows(referenced.getData(), compared));
+            diffing = CoderTask.start(progress -> new DiffEngine().compare(referenced, compared), index -> {
+                differences = index;
+                nextButton.setDisable(index.isEmpty());
+                diffLabel.setText(String.format(Util.getString("differences"),
+                        index.getDifferentBytes(Region.HEADER), index.getDifferentBytes(Region.PALETTE),
+                        index.getDifferentBytes(Region.PIXELS)));
+            }, e -> Util.showError(Util.getString("comparing"), e.toString()));
+        }
+    }
+
+    /**
+     * select the first row with difference after selected row, search continues from begin of file
+     */
+    public void nextDifference(ActionEvent event) {
+        if (differences == null) {
+            return;
+        }
+        long row = view.getSelectionModel().getSelectedIndex();
+        long position = differences.next((row + 1) * BYTE_PER_ROW);
+        if (position < 0) {
+            position = differences.next(0);
+        }
+        if (position >= 0) {
+            int index = (int) Math.min(Integer.MAX_VALUE, position / BYTE_PER_ROW);
+            view.getSelectionModel().clearAndSelect(index);
+            view.scrollTo(index);
         }
     }
 
@@ -110,6 +147,8 @@ public class CompareController extends Controller {
             tableColumn.setPrefWidth(COLUMN_WIDTH);
             tableColumn.setCellValueFactory(param -> new ReadOnlyObjectWrapper(param.getValue()));
             tableColumn.setCellFactory(getCellCallback(isReferenced, i));
+            // rows are computed in file order and can't be sorted
+            tableColumn.setSortable(false);
             view.getColumns().add(tableColumn);
         }
     }
@@ -151,20 +190,58 @@ public class CompareController extends Controller {
     }
 
     /**
-     * auxiliary class representing table row
+     * Read-only list of table rows computed from compared files by index. Table asks only for shown rows,
+     * so time and memory of comparison don't depend on sizes of files
      */
-    private static class HexItem {
-        private byte[] referencedRow;
-        private byte[] comparedRow;
-        private byte[] address;
+    private static class HexRows extends ObservableListBase<HexItem> {
+        private final BitmapData referenced;
+        private final BitmapData compared;
+        private final int size;
+
+        private HexRows(BitmapData referenced, BitmapData compared) {
+            this.referenced = referenced;
+            this.compared = compared;
+            long length = Math.max(referenced.size(), compared.size());
+            size = (int) Math.min(Integer.MAX_VALUE, (length + BYTE_PER_ROW - 1) / BYTE_PER_ROW);
+        }
 
+        @Override
+        public HexItem get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Invalid row " + index);
+            }
+            long address = (long) index * BYTE_PER_ROW;
+            return new HexItem(address, read(referenced, address), read(compared, address));
+        }
 
-        public String getAddress() {
-            return Util.hexToString(address);
+        @Override
+        public int size() {
+            return size;
         }
 
-        public void setAddress(byte[] address) {
+        private static byte[] read(BitmapData data, long address) {
+            byte[] row = new byte[(int) Math.max(0, Math.min(BYTE_PER_ROW, data.size() - address))];
+            data.read(address, row, 0, row.length);
+            return row;
+        }
+    }
+
+    /**
+     * auxiliary class representing table row
+     */
+    private static class HexItem {
+        private final long address;
+        private final byte[] referencedRow;
+        private final byte[] comparedRow;
+
+        private HexItem(long address, byte[] referencedRow, byte[] comparedRow) {
             this.address = address;
+            this.referencedRow = referencedRow;
+            this.comparedRow = comparedRow;
+        }
+
+        public String getAddress() {
+            return String.format("%08X", address);
         }
     }
 }
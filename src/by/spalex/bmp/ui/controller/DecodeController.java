@@ -1,15 +1,26 @@
 package by.spalex.bmp.ui.controller;
 
+import by.spalex.bmp.bitmap.Bitmap;
+import by.spalex.bmp.coder.Decoder;
+import by.spalex.bmp.coder.Progress;
+import by.spalex.bmp.ui.CoderTask;
 import by.spalex.bmp.ui.Util;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.scene.Node;
+import javafx.scene.control.Button;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.control.TextArea;
 import javafx.stage.Window;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 
 /**
@@ -19,27 +30,82 @@ public class DecodeController extends Controller {
 
     @FXML
     private TextArea textArea;
+    @FXML
+    private Button saveButton;
+    @FXML
+    private ProgressBar progressBar;
+    private Bitmap bitmap;
+    private String decoded;
+    private CoderTask<File> saving;
 
     /**
-     * set text at view's TextArea
+     * set text decoded from bitmap at view's TextArea
+     * @param bitmap bitmap holding text
+     * @param text   text decoded as UTF-8
      */
-    public void setText(String text) {
+    public void setDecoded(Bitmap bitmap, String text) {
+        this.bitmap = bitmap;
+        decoded = text;
         textArea.setText(text);
     }
 
     /**
-     * Saves decoded text to file
+     * Saves decoded text to file out of application thread. Unchanged text is saved as raw bytes of bitmap,
+     * so binary data are not mangled by conversion to text, edited text is saved in UTF-8
      */
     public void save(ActionEvent actionEvent) {
         Window window = ((Node) actionEvent.getSource()).getScene().getWindow();
         File file = Util.getFileChooser(Util.getString("save.decoded.text"), "text", "*.txt").showSaveDialog(window);
         if (file != null) {
             String text = textArea.getText();
-            try {
-                Files.write(file.toPath(), text.getBytes(), StandardOpenOption.CREATE);
-            } catch (IOException e) {
+            // raw bytes are decoded again, null if edited text is saved
+            Bitmap source = bitmap != null && text.equals(decoded) ? bitmap : null;
+            saveButton.setDisable(true);
+            saving = CoderTask.start(progress -> {
+                save(source, text, file.toPath(), progress);
+                return file;
+            }, saved -> saveButton.setDisable(false), e -> {
+                saveButton.setDisable(false);
                 Util.showError(Util.getString("save.decoded.text"), e.toString());
+            });
+            progressBar.progressProperty().bind(saving.progressProperty());
+            progressBar.visibleProperty().bind(saving.runningProperty());
+        }
+    }
+
+    /**
+     * Writes text to temporary file which then replaces target, so cancelled saving leaves target unchanged
+     */
+    private static void save(Bitmap source, String text, Path target, Progress progress) throws IOException {
+        Path absolute = target.toAbsolutePath();
+        Path temp = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                if (source != null) {
+                    Decoder decoder = new Decoder(source);
+                    decoder.setProgress(progress);
+                    decoder.decodeTo(channel);
+                } else {
+                    ByteBuffer buffer = StandardCharsets.UTF_8.encode(text);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                }
             }
+            Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * cancel saving and close view
+     */
+    @Override
+    public void close(ActionEvent actionEvent) {
+        if (saving != null) {
+            saving.cancel();
         }
+        super.close(actionEvent);
     }
 }
@@ -2,21 +2,29 @@ package by.spalex.bmp.ui.controller;
 
 import by.spalex.bmp.bitmap.Bitmap;
 import by.spalex.bmp.coder.Encoder;
+import by.spalex.bmp.coder.Progress;
+import by.spalex.bmp.ui.CoderTask;
 import by.spalex.bmp.ui.Util;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.scene.Node;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.control.TextArea;
-import javafx.scene.input.KeyEvent;
+import javafx.scene.control.TextFormatter;
 import javafx.stage.Window;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
-import java.util.Arrays;
 
 /**
  * Controller for encoding text view
@@ -28,37 +36,126 @@ public class EncodeController extends Controller {
     private Button encodeButton;
     @FXML
     private Label statusLabel;
+    @FXML
+    private ProgressBar progressBar;
     private Bitmap bitmap;
+    private CoderTask<File> encoding;
 
-    private int encodeCapacity;
+    private long encodeCapacity;
+    // length of text in UTF-8 bytes, updated by every change of text
+    private long textLength;
+    // file loaded by loadText, its bytes are encoded as is until text is edited, so binary files are not mangled
+    private Path payloadFile;
 
     /**
-     * Encode text from TextArea into bitmap
+     * Encode text from TextArea into bitmap out of application thread
      */
     public void encode(ActionEvent actionEvent) {
-        byte[] text = textArea.getText().getBytes();
+        if (payloadFile != null) {
+            if (textLength > encodeCapacity) {
+                Util.showWarning(Util.getString("text_encode"),
+                        String.format(Util.getString("text.exceeded.encoding.capacity"),
+                                textLength - encodeCapacity));
+                return;
+            }
+            Path payload = payloadFile;
+            long length = textLength;
+            start(actionEvent, (target, progress) -> save(payload, length, target, progress));
+            return;
+        }
+        String source = textArea.getText();
+        byte[] text = source.getBytes(StandardCharsets.UTF_8);
+        // running length may overestimate lone surrogates, exact one is shown from now on
+        textLength = text.length;
+        updateStatus();
         if (text.length > encodeCapacity) {
             Util.showWarning(Util.getString("text_encode"),
                     String.format(Util.getString("text.exceeded.encoding.capacity"),
                             text.length - encodeCapacity));
-            text = Arrays.copyOf(text, encodeCapacity);
-            textArea.setText(new String(text));
+            truncate(source);
             return;
         }
-        Encoder encoder = new Encoder(bitmap);
+        byte[] encodeText = text;
+        start(actionEvent, (target, progress) -> save(encodeText, target, progress));
+    }
+
+    /**
+     * Cuts text to encode capacity. Encoder stops before character which doesn't fit, so multi-byte characters
+     * are never split, and it replaces lone surrogates by '?' just like {@link String#getBytes}
+     */
+    private void truncate(String text) {
+        CharBuffer chars = CharBuffer.wrap(text);
+        ByteBuffer bytes = ByteBuffer.allocate((int) encodeCapacity);
+        StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                .encode(chars, bytes, true);
+        textArea.setText(text.substring(0, chars.position()));
+        textLength = bytes.position();
+        updateStatus();
+    }
+
+    /**
+     * Saving of encoded bitmap to chosen file
+     */
+    private interface Save {
+        void save(Path target, Progress progress) throws IOException;
+    }
+
+    /**
+     * Asks for target file and saves encoded bitmap to it out of application thread
+     */
+    private void start(ActionEvent actionEvent, Save save) {
         Window window = ((Node) actionEvent.getSource()).getScene().getWindow();
         File file = Util.getFileChooser(Util.getString("text_encode"), "bitmap", "*.bmp").showSaveDialog(window);
         if (file != null) {
-            try {
-                byte[] encoded = encoder.encode(text);
-                Files.write(file.toPath(), encoded, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            encodeButton.setDisable(true);
+            encoding = CoderTask.start(progress -> {
+                save.save(file.toPath().toAbsolutePath(), progress);
+                return file;
+            }, saved -> {
+                encodeButton.setDisable(false);
                 Util.showInfo(Util.getString("text_encode"), Util.getString("text.successfully.encoded"));
-            } catch (Exception e) {
+            }, e -> {
+                encodeButton.setDisable(false);
                 Util.showError(Util.getString("text_encode"), e.toString());
-            }
+            });
+            progressBar.progressProperty().bind(encoding.progressProperty());
+            progressBar.visibleProperty().bind(encoding.runningProperty());
         }
     }
 
+    /**
+     * Encodes text and writes encoded bitmap to file
+     */
+    private void save(byte[] text, Path target, Progress progress) throws IOException {
+        Encoder encoder = new Encoder(bitmap);
+        encoder.setProgress(progress);
+        encoder.encodeRegion(text).writeTo(target);
+    }
+
+    /**
+     * Encodes bytes of file read by blocks and writes encoded bitmap to file
+     */
+    private void save(Path payload, long length, Path target, Progress progress) throws IOException {
+        Encoder encoder = new Encoder(bitmap);
+        encoder.setProgress(progress);
+        try (FileChannel channel = FileChannel.open(payload, StandardOpenOption.READ)) {
+            encoder.encode(channel, length).writeTo(target);
+        }
+    }
+
+    /**
+     * cancel encoding and close view
+     */
+    @Override
+    public void close(ActionEvent actionEvent) {
+        if (encoding != null) {
+            encoding.cancel();
+        }
+        super.close(actionEvent);
+    }
+
     /**
      * load text for encoding from text file
      */
@@ -68,8 +165,10 @@ public class EncodeController extends Controller {
         if (file != null && file.exists()) {
             try {
                 byte[] bytes = Files.readAllBytes(file.toPath());
-                textArea.setText(new String(bytes));
-                onKeyReleased(null);
+                textArea.setText(new String(bytes, StandardCharsets.UTF_8));
+                textLength = bytes.length;
+                payloadFile = file.toPath();
+                updateStatus();
             } catch (IOException e) {
                 Util.showError(Util.getString("load_text"), e.toString());
             }
@@ -85,12 +184,50 @@ public class EncodeController extends Controller {
         encodeCapacity = bitmap.getEncodeCapacity();
     }
 
+    @FXML
+    void initialize() {
+        // only changed part of text is measured, the whole text is never copied
+        textArea.setTextFormatter(new TextFormatter<>(change -> {
+            if (payloadFile != null) {
+                // edited text is encoded instead of loaded file
+                payloadFile = null;
+                textLength = utf8Length(textArea.getText());
+            }
+            textLength += utf8Length(change.getText())
+                    - utf8Length(textArea.getText(change.getRangeStart(), change.getRangeEnd()));
+            updateStatus();
+            return change;
+        }));
+    }
+
     /**
-     * calculate and show available encode capacity in bytes
+     * show available encode capacity in bytes
      */
-    public void onKeyReleased(KeyEvent keyEvent) {
-        int length = textArea.getLength();
-        encodeButton.setDisable(length == 0);
-        statusLabel.setText(Util.getString("chars_left") + (encodeCapacity - (textArea.getText().getBytes().length)));
+    private void updateStatus() {
+        encodeButton.setDisable(textLength == 0);
+        statusLabel.setText(Util.getString("chars_left") + (encodeCapacity - textLength));
+    }
+
+    /**
+     * Counts UTF-8 bytes of text. Every char is counted separately, so counts of parts of text sum up
+     * to count of the whole text: surrogate pair takes 4 bytes. Lone surrogate is encoded as '?', so it is
+     * overestimated by 1 byte, exact length is taken by {@link #encode(ActionEvent)}
+     *
+     * @param text text
+     * @return length of text in UTF-8 bytes
+     */
+    private static long utf8Length(CharSequence text) {
+        long length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800 || Character.isSurrogate(c)) {
+                length += 2;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
     }
 }
@@ -2,30 +2,31 @@ package by.spalex.bmp.ui.controller;
 
 import by.spalex.bmp.bitmap.Bitmap;
 import by.spalex.bmp.coder.Decoder;
+import by.spalex.bmp.coder.Progress;
+import by.spalex.bmp.ui.CoderTask;
 import by.spalex.bmp.ui.Main;
+import by.spalex.bmp.ui.ResizableCanvas;
 import by.spalex.bmp.ui.Util;
-import javafx.beans.InvalidationListener;
-import javafx.beans.Observable;
-import javafx.embed.swing.SwingFXUtils;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Node;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
-import javafx.scene.canvas.Canvas;
-import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.image.Image;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
 import javafx.stage.Window;
-import org.apache.sanselan.Sanselan;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 
 /**
  * Controller for main view
@@ -40,69 +41,102 @@ public class MainController extends Controller {
     private Button compareButton;
 
     @FXML
-    private Canvas canvas;
+    private ResizableCanvas canvas;
+    @FXML
+    private ProgressBar progressBar;
+    private CoderTask<LoadedImage> loading;
 
-    private final InvalidationListener listener = new InvalidationListener() {
-        @Override
-        public void invalidated(Observable observable) {
-            if (image != null) {
-                paint(image);
-            }
-        }
-    };
-    private Image image = null;
     private Bitmap bitmap;
     @FXML
     private Label statusLabel;
     private String fileName;
 
     /**
-     * load bitmap image and show it in main view
+     * load bitmap image and show it in main view. File is read, rendered and decoded out of application thread,
+     * loading of previous image is cancelled
      */
     @FXML
     void openImage(ActionEvent event) {
         Window window = ((Node) event.getSource()).getScene().getWindow();
         File imageFile = Util.getFileChooser(Util.getString("open_image"), "bitmap", "*.bmp").showOpenDialog(window);
         if (imageFile != null && imageFile.exists()) {
-            try {
-                bitmap = new Bitmap(Files.readAllBytes(imageFile.toPath()));
+            if (loading != null) {
+                loading.cancel();
+            }
+            Path path = imageFile.toPath();
+            loading = CoderTask.start(progress -> load(path, progress), loaded -> {
+                bitmap = loaded.bitmap;
                 fileName = imageFile.getName();
-                image = SwingFXUtils.toFXImage(Sanselan.getBufferedImage(imageFile), null);
-                paint(image);
-                long capacity = bitmap.getEncodeCapacity();
+                canvas.setImage(loaded.image);
                 statusLabel.setText(Util.getString("file") + imageFile.getName() +
-                        Util.getString("encode_capacity") + capacity + Util.getString("bytes"));
-                encodeButton.setDisable(capacity == 0);
+                        Util.getString("encode_capacity") + loaded.capacity + Util.getString("bytes"));
+                encodeButton.setDisable(loaded.capacity == 0);
                 compareButton.setDisable(false);
-            } catch (Exception e) {
+                decodeButton.setDisable(loaded.text == null || loaded.text.isEmpty());
+                if (loaded.text != null) {
+                    decodeButton.setUserData(loaded.text);
+                }
+            }, e -> {
                 Util.showError(Util.getString("open_image"), e.toString());
                 encodeButton.setDisable(true);
                 compareButton.setDisable(true);
+                decodeButton.setDisable(true);
+            });
+            progressBar.progressProperty().bind(loading.progressProperty());
+            progressBar.visibleProperty().bind(loading.runningProperty());
+        }
+    }
+
+    /**
+     * Reads bitmap, renders its image and decodes its text. Text is decoded only if frame header tells
+     * that bitmap holds it, so bitmaps which were never encoded are not decoded
+     */
+    private static LoadedImage load(Path path, Progress progress) throws IOException {
+        Bitmap bitmap = Bitmap.open(path);
+        Image image = Util.toImage(bitmap, progress);
+        String text = null;
+        try {
+            Decoder decoder = new Decoder(bitmap);
+            decoder.setProgress(progress);
+            if (decoder.hasPayload()) {
+                text = decoder.decode(StandardCharsets.UTF_8);
+            } else if (decoder.hasPayload(true)) {
+                text = decodeLegacy(decoder);
             }
-            String text = null;
-            if (bitmap != null) {
-                try {
-                    Decoder decoder = new Decoder(bitmap);
-                    text = decoder.decode();
-                } catch (IllegalStateException ignored) {
-                }
-            }
-            decodeButton.setDisable(text == null || text.isEmpty());
-            if (text != null) {
-                decodeButton.setUserData(text);
-            }
+        } catch (IllegalStateException ignored) {
         }
+        return new LoadedImage(bitmap, image, bitmap.getEncodeCapacity(), text);
     }
 
-    private void paint(Image image) {
-        GraphicsContext gc = canvas.getGraphicsContext2D();
-        gc.drawImage(image, 0, 0, canvas.getWidth(), canvas.getHeight());
+    /**
+     * Decodes text of bitmap encoded by older version. Its header has no magic and CRC, so bitmaps which
+     * were never encoded may pass it, but older versions encoded UTF-8 text only, and random bytes are
+     * almost never valid UTF-8
+     * @return decoded text, null if it is not valid UTF-8
+     */
+    private static String decodeLegacy(Decoder decoder) {
+        try {
+            return StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(decoder.decodeBytes())).toString();
+        } catch (CharacterCodingException e) {
+            return null;
+        }
     }
 
-    @FXML
-    void initialize() {
-        canvas.widthProperty().addListener(listener);
-        canvas.heightProperty().addListener(listener);
+    /**
+     * Result of loading passed to application thread
+     */
+    private static final class LoadedImage {
+        private final Bitmap bitmap;
+        private final Image image;
+        private final long capacity;
+        private final String text;
+
+        private LoadedImage(Bitmap bitmap, Image image, long capacity, String text) {
+            this.bitmap = bitmap;
+            this.image = image;
+            this.capacity = capacity;
+            this.text = text;
+        }
     }
 
     private void createStage(String encode, Window primaryStage, Parent root) {
@@ -143,7 +177,7 @@ public class MainController extends Controller {
             Parent root = loader.load();
             DecodeController controller = loader.getController();
             String text = (String) decodeButton.getUserData();
-            controller.setText(text);
+            controller.setDecoded(bitmap, text);
             createStage(Util.getString("decode"), primaryStage, root);
         } catch (Exception e) {
             Util.showError(Util.getString("decode"), e.toString());
@@ -162,7 +196,7 @@ public class MainController extends Controller {
         try {
             Parent root = loader.load();
             CompareController controller = loader.getController();
-            controller.setReferenced(bitmap.getBytes(), fileName);
+            controller.setReferenced(bitmap, fileName);
             createStage(Util.getString("comparing"), primaryStage, root);
         } catch (IOException e) {
             Util.showError(Util.getString("comparing"), e.toString());